@@ -0,0 +1,153 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Aggressor lists of a set of region centers (scan cells or clock buffers) for the largest aggressor
+ * region of a study, from which the lists of all smaller regions are taken without another geometry
+ * pass.
+ *
+ * A cell at offset (dx, dy) from the center is in a region of size w x h if |dx| <= w/2 and
+ * |dy| <= h/2, as in PlacementGrid.queryAll. Each list is sorted by the extent of the cell: the
+ * larger of 2|dx| / maxWidth and 2|dy| / maxHeight. All aggressors of a smaller region lie within the
+ * prefix up to the extent of that region, so view() reads only this prefix and filters it by the
+ * exact bounds. For regions scaled proportionally from the largest one, the prefix is the result.
+ */
+public class AggressorLists {
+
+	private static final int PARALLEL_THRESHOLD = 256;
+
+	private final PlacementGrid grid;
+	private final int maxWidth, maxHeight;
+
+	// aggressors of center c are agg[start[c]] .. agg[start[c+1]-1] at absolute offsets dx, dy, sorted
+	// by extent.
+	private final int[] start;
+	private final int[] agg;
+	private final int[] dx;
+	private final int[] dy;
+	private final float[] extent;
+
+	/**
+	 * @param grid
+	 *            grid over all placed cells. Views return indices into grid.cells().
+	 * @param x
+	 *            region centers.
+	 * @param y
+	 *            region centers.
+	 */
+	public AggressorLists(PlacementGrid grid, int[] x, int[] y, int maxWidth, int maxHeight) {
+		this.grid = grid;
+		this.maxWidth = Math.max(1, maxWidth);
+		this.maxHeight = Math.max(1, maxHeight);
+		int[][] lists = grid.queryAll(x, y, maxWidth, maxHeight);
+		start = new int[lists.length + 1];
+		for (int c = 0; c < lists.length; c++)
+			start[c + 1] = start[c] + lists[c].length;
+		agg = new int[start[lists.length]];
+		dx = new int[agg.length];
+		dy = new int[agg.length];
+		extent = new float[agg.length];
+		ForkJoinPool.commonPool().invoke(new SortTask(lists, x, y, 0, lists.length));
+	}
+
+	private float extent(int dx, int dy) {
+		return Math.max(2f * dx / maxWidth, 2f * dy / maxHeight);
+	}
+
+	/**
+	 * @return the number of region centers.
+	 */
+	public int size() {
+		return start.length - 1;
+	}
+
+	public PlacementGrid grid() {
+		return grid;
+	}
+
+	/**
+	 * @return the aggressors of the given center in a region of size width x height, as indices into
+	 *         grid().cells(), ordered by extent.
+	 */
+	public int[] view(int center, int width, int height) {
+		if (width > maxWidth || height > maxHeight)
+			throw new IllegalArgumentException("region " + width + " x " + height + " exceeds " + maxWidth + " x "
+					+ maxHeight);
+		int hw = width / 2;
+		int hh = height / 2;
+		float bound = extent(hw, hh);
+		int from = start[center];
+		int to = start[center + 1];
+		// first entry with extent > bound
+		int lo = from, hi = to;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (extent[mid] <= bound)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		int[] result = new int[lo - from];
+		int count = 0;
+		for (int i = from; i < lo; i++)
+			if (dx[i] <= hw && dy[i] <= hh)
+				result[count++] = agg[i];
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @return view() of all centers.
+	 */
+	public int[][] viewAll(int width, int height) {
+		int[][] result = new int[size()][];
+		for (int c = 0; c < result.length; c++)
+			result[c] = view(c, width, height);
+		return result;
+	}
+
+	private class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[][] lists;
+		private final int[] x, y;
+		private final int from, to;
+
+		SortTask(int[][] lists, int[] x, int[] y, int from, int to) {
+			this.lists = lists;
+			this.x = x;
+			this.y = y;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > PARALLEL_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new SortTask(lists, x, y, from, mid), new SortTask(lists, x, y, mid, to));
+				return;
+			}
+			for (int c = from; c < to; c++) {
+				int[] list = lists[c];
+				// extent bits in the upper half keep the order of non-negative floats, the position in the
+				// list in the lower half makes the order stable.
+				long[] keys = new long[list.length];
+				for (int k = 0; k < list.length; k++) {
+					int cx = Math.abs(grid.getX(list[k]) - x[c]);
+					int cy = Math.abs(grid.getY(list[k]) - y[c]);
+					keys[k] = ((long) Float.floatToIntBits(extent(cx, cy)) << 32) | k;
+				}
+				Arrays.sort(keys);
+				for (int k = 0; k < list.length; k++) {
+					int i = start[c] + k;
+					agg[i] = list[(int) keys[k]];
+					dx[i] = Math.abs(grid.getX(agg[i]) - x[c]);
+					dy[i] = Math.abs(grid.getY(agg[i]) - y[c]);
+					extent[i] = extent(dx[i], dy[i]);
+				}
+			}
+		}
+	}
+}
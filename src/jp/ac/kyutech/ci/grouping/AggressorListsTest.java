@@ -0,0 +1,67 @@
+package jp.ac.kyutech.ci.grouping;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.kyupi.circuit.Cell;
+
+public class AggressorListsTest {
+
+	private static final int MAX_W = 400;
+	private static final int MAX_H = 300;
+
+	private PlacementGrid randomGrid(Random r, int size) {
+		int[] x = new int[size];
+		int[] y = new int[size];
+		for (int i = 0; i < size; i++) {
+			// coarse coordinates, so that many cells lie exactly on region borders.
+			x[i] = 10 * r.nextInt(200);
+			y[i] = 10 * r.nextInt(150);
+		}
+		return new PlacementGrid(new Cell[size], x, y, MAX_W, MAX_H);
+	}
+
+	private void assertViews(PlacementGrid grid, AggressorLists lists, int[] x, int[] y, int w, int h) {
+		int[][] expected = grid.queryAll(x, y, w, h);
+		int[][] actual = lists.viewAll(w, h);
+		assertEquals(expected.length, actual.length);
+		for (int c = 0; c < expected.length; c++) {
+			int[] view = lists.view(c, w, h);
+			Arrays.sort(view);
+			Arrays.sort(actual[c]);
+			assertEquals(Arrays.toString(expected[c]), Arrays.toString(view));
+			assertEquals(Arrays.toString(expected[c]), Arrays.toString(actual[c]));
+		}
+	}
+
+	@Test
+	public void testViews() {
+		Random r = new Random(3);
+		PlacementGrid grid = randomGrid(r, 2000);
+		int centers = 600;
+		int[] x = new int[centers];
+		int[] y = new int[centers];
+		for (int c = 0; c < centers; c++) {
+			x[c] = 10 * r.nextInt(200) + r.nextInt(3) * 5;
+			y[c] = 10 * r.nextInt(150) + r.nextInt(3) * 5;
+		}
+		AggressorLists lists = new AggressorLists(grid, x, y, MAX_W, MAX_H);
+		assertEquals(centers, lists.size());
+
+		// proportional regions
+		assertViews(grid, lists, x, y, MAX_W, MAX_H);
+		assertViews(grid, lists, x, y, MAX_W / 2, MAX_H / 2);
+		assertViews(grid, lists, x, y, MAX_W / 4, MAX_H / 4);
+		assertViews(grid, lists, x, y, 0, 0);
+
+		// non-proportional regions
+		assertViews(grid, lists, x, y, MAX_W, MAX_H / 3);
+		assertViews(grid, lists, x, y, MAX_W / 5, MAX_H);
+		assertViews(grid, lists, x, y, 130, 70);
+		assertViews(grid, lists, x, y, 21, 299);
+	}
+
+}
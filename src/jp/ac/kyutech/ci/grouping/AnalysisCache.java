@@ -0,0 +1,273 @@
+package jp.ac.kyutech.ci.grouping;
+
+import org.apache.log4j.Logger;
+import org.kyupi.circuit.Cell;
+import org.kyupi.circuit.ScanChains;
+import org.kyupi.circuit.ScanChains.ScanCell;
+import org.kyupi.circuit.ScanChains.ScanChain;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * On-disk cache of the design analysis: impact sets, aggressor sets and pair costs. Entries are keyed
+ * by a SHA-256 hash over the netlist, the DEF file and the aggressor region size, so a changed input
+ * never hits a stale entry. Files are written to a temporary file first and renamed, so concurrent
+ * runs on the same cache directory see either a complete entry or none.
+ *
+ * Nodes are stored by name and resolved to the cells of the current circuit when loading.
+ */
+public class AnalysisCache {
+
+	protected static Logger log = Logger.getLogger(AnalysisCache.class);
+
+	private static final int SETS_MAGIC = 0x47525331; // GRS1
+	private static final int PAIRS_MAGIC = 0x47525031; // GRP1
+	private static final int VERSION = 2;
+
+	private final File setsFile;
+	private final File pairsFile;
+
+	public AnalysisCache(File dir, String key) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("cannot create cache directory " + dir);
+		setsFile = new File(dir, key + ".sets");
+		pairsFile = new File(dir, key + ".pairs");
+	}
+
+	/**
+	 * @param def
+	 *            the DEF file or null, if there is no placement.
+	 * @return the hex encoded cache key for the given inputs.
+	 */
+	public static String key(File netlist, File def, double arx, double ary) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		md.update(("v" + VERSION + " arx " + arx + " ary " + ary + "\n").getBytes(StandardCharsets.UTF_8));
+		digest(md, netlist);
+		md.update(new byte[] { 0 });
+		if (def != null)
+			digest(md, def);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	private static void digest(MessageDigest md, File f) throws IOException {
+		byte[] buf = new byte[1 << 16];
+		try (InputStream in = Files.newInputStream(f.toPath())) {
+			int len;
+			while ((len = in.read(buf)) > 0)
+				md.update(buf, 0, len);
+		}
+	}
+
+	/**
+	 * fills chain2impactSet and cell2aggressorSet from the cache.
+	 *
+	 * @return false, if there is no valid entry or a node could not be found in the circuit.
+	 */
+	public boolean loadSets(ScanChains chains, HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
+			HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet) {
+		if (!setsFile.canRead())
+			return false;
+		try {
+			ByteBuffer buf = map(setsFile);
+			if (buf.getInt() != SETS_MAGIC || buf.getInt() != VERSION || buf.getInt() != chains.size())
+				return false;
+
+			HashMap<String, Cell> name2cell = circuitCells(chains);
+
+			Cell[] nodes = new Cell[buf.getInt()];
+			byte[] name = new byte[256];
+			for (int i = 0; i < nodes.length; i++) {
+				int len = buf.getInt();
+				if (len > name.length)
+					name = new byte[len];
+				buf.get(name, 0, len);
+				nodes[i] = name2cell.get(new String(name, 0, len, StandardCharsets.UTF_8));
+				if (nodes[i] == null) {
+					log.warn("AnalysisCache node not in circuit, ignoring cache.");
+					return false;
+				}
+			}
+
+			HashMap<ScanChain, HashSet<Cell>> impacts = new HashMap<>();
+			HashMap<ScanCell, HashSet<Cell>> aggressors = new HashMap<>();
+			for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
+				ScanChain chain = chains.get(chainIdx);
+				if (buf.getInt() != chain.cells.size())
+					return false;
+				impacts.put(chain, toSet(nodes, readInts(buf)));
+				for (ScanCell cell : chain.cells)
+					aggressors.put(cell, toSet(nodes, readInts(buf)));
+			}
+			chain2impactSet.putAll(impacts);
+			cell2aggressorSet.putAll(aggressors);
+			log.info("AnalysisCache loaded sets from " + setsFile);
+			return true;
+		} catch (IOException | RuntimeException e) {
+			log.warn("AnalysisCache could not read " + setsFile + ": " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return all cells connected to the scan cells by name, found by a traversal over the inputs and
+	 *         outputs of the circuit.
+	 */
+	private static HashMap<String, Cell> circuitCells(ScanChains chains) {
+		HashMap<String, Cell> name2cell = new HashMap<>();
+		ArrayList<Cell> stack = new ArrayList<>();
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++)
+			for (ScanCell sc : chains.get(chainIdx).cells)
+				if (name2cell.putIfAbsent(sc.node.name(), sc.node) == null)
+					stack.add(sc.node);
+		while (!stack.isEmpty()) {
+			Cell n = stack.remove(stack.size() - 1);
+			for (int pos = 0; pos < n.inputCount(); pos++)
+				visit(n.inputCellAt(pos), name2cell, stack);
+			for (int pos = 0; pos < n.outputCount(); pos++)
+				visit(n.outputCellAt(pos), name2cell, stack);
+		}
+		return name2cell;
+	}
+
+	private static void visit(Cell n, HashMap<String, Cell> name2cell, ArrayList<Cell> stack) {
+		if (n != null && name2cell.putIfAbsent(n.name(), n) == null)
+			stack.add(n);
+	}
+
+	public void saveSets(ScanChains chains, HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
+			HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet) throws IOException {
+		HashMap<Cell, Integer> node2idx = new HashMap<>();
+		ArrayList<Cell> nodes = new ArrayList<>();
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
+			ScanChain chain = chains.get(chainIdx);
+			for (Cell n : chain2impactSet.get(chain))
+				if (node2idx.putIfAbsent(n, nodes.size()) == null)
+					nodes.add(n);
+			for (ScanCell cell : chain.cells)
+				for (Cell n : cell2aggressorSet.get(cell))
+					if (node2idx.putIfAbsent(n, nodes.size()) == null)
+						nodes.add(n);
+		}
+
+		File tmp = File.createTempFile(setsFile.getName(), ".tmp", setsFile.getParentFile());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(SETS_MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(chains.size());
+			out.writeInt(nodes.size());
+			for (Cell n : nodes) {
+				byte[] name = n.name().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(name.length);
+				out.write(name);
+			}
+			for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
+				ScanChain chain = chains.get(chainIdx);
+				out.writeInt(chain.cells.size());
+				writeSet(out, node2idx, chain2impactSet.get(chain));
+				for (ScanCell cell : chain.cells)
+					writeSet(out, node2idx, cell2aggressorSet.get(cell));
+			}
+		}
+		commit(tmp, setsFile);
+		log.info("AnalysisCache saved sets to " + setsFile);
+	}
+
+	/**
+	 * @return the cached weighted pair costs for the given number of chains, or null.
+	 */
+	public PairCostTable loadPairCosts(int chains) {
+		if (!pairsFile.canRead())
+			return null;
+		try {
+			ByteBuffer buf = map(pairsFile);
+			if (buf.getInt() != PAIRS_MAGIC || buf.getInt() != VERSION || buf.getInt() != chains)
+				return null;
+			float[] single = new float[chains];
+			float[] pair = new float[chains * (chains - 1) / 2];
+			buf.asFloatBuffer().get(single);
+			buf.position(buf.position() + 4 * single.length);
+			buf.asFloatBuffer().get(pair);
+			log.info("AnalysisCache loaded pair costs from " + pairsFile);
+			return new PairCostTable(single, pair);
+		} catch (IOException | RuntimeException e) {
+			log.warn("AnalysisCache could not read " + pairsFile + ": " + e);
+			return null;
+		}
+	}
+
+	public void savePairCosts(PairCostTable table) throws IOException {
+		File tmp = File.createTempFile(pairsFile.getName(), ".tmp", pairsFile.getParentFile());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(PAIRS_MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(table.size());
+			for (float f : table.single)
+				out.writeFloat(f);
+			for (float f : table.pair)
+				out.writeFloat(f);
+		}
+		commit(tmp, pairsFile);
+		log.info("AnalysisCache saved pair costs to " + pairsFile);
+	}
+
+	private static MappedByteBuffer map(File f) throws IOException {
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+	}
+
+	private static int[] readInts(ByteBuffer buf) {
+		int[] ints = new int[buf.getInt()];
+		buf.asIntBuffer().get(ints);
+		buf.position(buf.position() + 4 * ints.length);
+		return ints;
+	}
+
+	private static HashSet<Cell> toSet(Cell[] nodes, int[] idx) {
+		HashSet<Cell> set = new HashSet<>(idx.length * 4 / 3 + 1);
+		for (int i : idx)
+			set.add(nodes[i]);
+		return set;
+	}
+
+	private static void writeSet(DataOutputStream out, HashMap<Cell, Integer> node2idx, HashSet<Cell> set)
+			throws IOException {
+		out.writeInt(set.size());
+		for (Cell n : set)
+			out.writeInt(node2idx.get(n));
+	}
+
+	private static void commit(File tmp, File target) throws IOException {
+		try {
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
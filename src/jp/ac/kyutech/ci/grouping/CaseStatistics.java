@@ -0,0 +1,147 @@
+package jp.ac.kyutech.ci.grouping;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Streaming aggregate over evaluated partitioning cases: count, min, mean, max, a histogram of the
+ * costs in bins of width 1 and the k best cases. Memory does not grow with the number of cases.
+ * Partial statistics of different workers are combined with merge(). Ties in cost are broken by case
+ * index, so the result does not depend on how the cases were split.
+ */
+public class CaseStatistics {
+
+	public static class Case {
+		public final long index;
+		public final float cost;
+		public final int[] clocking;
+
+		public Case(long index, float cost, int[] clocking) {
+			this.index = index;
+			this.cost = cost;
+			this.clocking = clocking;
+		}
+	}
+
+	private static final Comparator<Case> BEST_FIRST = new Comparator<Case>() {
+		@Override
+		public int compare(Case a, Case b) {
+			int cmp = Float.compare(a.cost, b.cost);
+			if (cmp != 0)
+				return cmp;
+			return Long.compare(a.index, b.index);
+		}
+	};
+
+	private final int k;
+
+	// worst of the k best on top.
+	private final PriorityQueue<Case> best;
+
+	private long count = 0;
+	private double sum = 0;
+	private float min = Float.MAX_VALUE;
+	private float max = 0;
+	private long[] histogram = new long[16];
+
+	public CaseStatistics(int k) {
+		this.k = k;
+		this.best = new PriorityQueue<>(Math.max(1, k + 1), Collections.reverseOrder(BEST_FIRST));
+	}
+
+	/**
+	 * adds a case. The clocking is copied only if the case is among the k best so far.
+	 */
+	public void add(long index, float cost, int[] clocking) {
+		count++;
+		sum += cost;
+		min = Math.min(min, cost);
+		max = Math.max(max, cost);
+		int bin = (int) cost;
+		if (bin >= histogram.length)
+			histogram = Arrays.copyOf(histogram, Math.max(bin + 1, histogram.length * 2));
+		histogram[bin]++;
+		if (k == 0)
+			return;
+		if (best.size() == k) {
+			Case worst = best.peek();
+			if (cost > worst.cost || (cost == worst.cost && index > worst.index))
+				return;
+			best.poll();
+		}
+		best.add(new Case(index, cost, Arrays.copyOf(clocking, clocking.length)));
+	}
+
+	public void merge(CaseStatistics other) {
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		if (other.histogram.length > histogram.length)
+			histogram = Arrays.copyOf(histogram, other.histogram.length);
+		for (int bin = 0; bin < other.histogram.length; bin++)
+			histogram[bin] += other.histogram[bin];
+		for (Case c : other.best) {
+			best.add(c);
+			if (best.size() > k)
+				best.poll();
+		}
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public float min() {
+		return count == 0 ? 0 : min;
+	}
+
+	public float max() {
+		return max;
+	}
+
+	public double mean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * @return number of cases with bin <= cost < bin + 1.
+	 */
+	public long histogram(int bin) {
+		return bin < histogram.length ? histogram[bin] : 0;
+	}
+
+	public int histogramSize() {
+		return (int) max + 1;
+	}
+
+	/**
+	 * @return the k best cases, best first.
+	 */
+	public ArrayList<Case> best() {
+		ArrayList<Case> list = new ArrayList<>(best);
+		list.sort(BEST_FIRST);
+		return list;
+	}
+
+	/**
+	 * logs the aggregates, the non-empty histogram bins and the best cases.
+	 */
+	public void log(Logger log) {
+		log.info("CaseCount " + count);
+		log.info("CostMin " + String.format("%.2f", min()) + " Mean " + String.format("%.2f", mean()) + " Max "
+				+ String.format("%.2f", max()));
+		for (int bin = 0; bin < histogramSize(); bin++)
+			if (histogram(bin) > 0)
+				log.info("  CostHistogram " + bin + " " + histogram(bin));
+		int rank = 0;
+		for (Case c : best())
+			log.info("  BestCase " + rank++ + " Index " + c.index + " Cost " + String.format("%.2f", c.cost)
+					+ " Clocking " + Arrays.toString(c.clocking).replaceAll("[\\[\\],]", ""));
+	}
+}
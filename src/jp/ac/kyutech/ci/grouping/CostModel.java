@@ -0,0 +1,365 @@
+package jp.ac.kyutech.ci.grouping;
+
+import jp.ac.kyutech.ci.grouping.Main.CBInfo;
+import org.kyupi.circuit.Cell;
+import org.kyupi.circuit.Placement;
+import org.kyupi.circuit.ScanChains.ScanCell;
+import org.kyupi.circuit.ScanChains.ScanChain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Index data of the cost functions: node numbering, impact sets, aggressor regions and weights. A
+ * CostModel is never modified after construction. It is built once per run and shared by all
+ * FastCostFunction instances, groupers and partitioning cases.
+ */
+public class CostModel {
+
+	int row_height = 0;
+	HashMap<Cell, Integer> node2idx;
+	Cell[] idx2node;
+	BitSet[] impacts;
+	int[][] scancell2idx;
+	int[][][] aregions;
+	// aggressor weights parallel to aregions, null if there is no placement.
+	float[][][] aweights;
+	int[] idx2fanout;
+	int[] idx2X;
+	int[] idx2Y;
+	float[] nodeCost;
+
+	// flat scan cell index = cellBase[chain_idx] + cell_idx
+	int[] cellBase;
+	int[] cell2chain;
+	int[] cell2pos;
+
+	// reverse of aregions in compressed sparse row format: the scan cells with node n in their
+	// aggressor region are node2cell[node2cellStart[n]] .. node2cell[node2cellStart[n+1]-1].
+	int[] node2cellStart;
+	int[] node2cell;
+	// aggressor weights parallel to node2cell, null if there is no placement.
+	float[] node2cellWeight;
+
+	// impacts as plain words for word-level union building.
+	long[][] impactWords;
+	// aggressor regions as bitmasks over node index words abitsWord[chain][cell] ...
+	// abitsWord[chain][cell] + abits[chain][cell].length - 1. null for sparse regions, which are
+	// evaluated via aregions.
+	long[][][] abits;
+	int[][] abitsWord;
+
+	public CostModel(HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
+							HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, CBInfo cbInfo){
+		node2idx = new HashMap<>();
+		int idx = 0;
+		for (HashSet<Cell> nodes : chain2impactSet.values())
+			for (Cell n : nodes)
+				if (!node2idx.containsKey(n))
+					node2idx.put(n, idx++);
+
+		impacts = new BitSet[chain2impactSet.keySet().size()];
+		for (ScanChain chain : chain2impactSet.keySet()) {
+			idx = chain.chainIdx();
+			impacts[idx] = new BitSet();
+			for (Cell n : chain2impactSet.get(chain))
+				impacts[idx].set(node2idx.get(n));
+		}
+
+		aregions = new int[impacts.length][][];
+		for (ScanChain chain : chain2impactSet.keySet()) {
+			int chain_idx = chain.chainIdx();
+			int cells = chain.cells.size();
+			aregions[chain_idx] = new int[cells][];
+			for (int cell_idx = 0; cell_idx < cells; cell_idx++) {
+				ScanCell cell = chain.cells.get(cell_idx);
+				HashSet<Cell> agg = cell2aggressorSet.get(cell);
+				idx = 0;
+				for (Cell n : agg)
+					if (node2idx.containsKey(n))
+						idx++;
+				aregions[chain_idx][cell_idx] = new int[idx];
+				idx = 0;
+				for (Cell n : agg)
+					if (node2idx.containsKey(n))
+						aregions[chain_idx][cell_idx][idx++] = node2idx.get(n);
+			}
+		}
+
+		nodeCost = new float[node2idx.size()];
+		for (Map.Entry<Cell, Integer> entry : node2idx.entrySet()){
+			String typename = entry.getKey().typeName();
+			if (cbInfo.all_clock_buffers.contains(entry.getKey())) {
+				nodeCost[entry.getValue()] = 1 * entry.getKey().inputCount();
+			}else if (typename.contains("AND")){
+				if (typename.contains("NAND")) {
+					nodeCost[entry.getValue()] = (float) 0.75;
+				}else {
+					nodeCost[entry.getValue()] = (float) 0.25;
+				}
+			}else if (typename.contains("OR")){
+				if (typename.contains("NOR")){
+					nodeCost[entry.getValue()] = (float) 0.25;
+				}else {
+					nodeCost[entry.getValue()] = (float) 0.75;
+				}
+			}else {
+				nodeCost[entry.getValue()] = (float) 0.5;
+			}
+		}
+
+		buildReverseIndex();
+		buildBitmasks();
+	}
+
+	public CostModel(HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
+							HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, int row_height, Placement placement) {
+		this(chain2impactSet, cell2aggressorSet, row_height, placement, null);
+	}
+
+	/**
+	 * @param cellWeights
+	 *            weight per chain and scan cell (e.g. from IRDropReport) that scales the aggressor
+	 *            weights of the cell, or null.
+	 */
+	public CostModel(HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
+							HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, int row_height, Placement placement,
+							float[][] cellWeights) {
+
+		this.row_height = row_height;
+
+		// number nodes row by row from left to right, so that aggressor regions cover few index words.
+		node2idx = new HashMap<>();
+		ArrayList<Cell> nodeList = new ArrayList<>();
+		for (HashSet<Cell> nodes : chain2impactSet.values())
+			for (Cell n : nodes)
+				if (!node2idx.containsKey(n)) {
+					node2idx.put(n, nodeList.size());
+					nodeList.add(n);
+				}
+		nodeList.sort(new Comparator<Cell>() {
+
+			@Override
+			public int compare(Cell o1, Cell o2) {
+				int cmp = Integer.compare(placement.getY(o1), placement.getY(o2));
+				if (cmp != 0)
+					return cmp;
+				return Integer.compare(placement.getX(o1), placement.getX(o2));
+			}
+		});
+		int idx = 0;
+		for (Cell n : nodeList)
+			node2idx.put(n, idx++);
+
+		impacts = new BitSet[chain2impactSet.keySet().size()];
+		for (ScanChain chain : chain2impactSet.keySet()) {
+			idx = chain.chainIdx();
+			impacts[idx] = new BitSet();
+			for (Cell n : chain2impactSet.get(chain))
+				impacts[idx].set(node2idx.get(n));
+		}
+
+		aregions = new int[impacts.length][][];
+		scancell2idx = new int[impacts.length][];
+		for (ScanChain chain : chain2impactSet.keySet()) {
+			int chain_idx = chain.chainIdx();
+			int cells = chain.cells.size();
+			aregions[chain_idx] = new int[cells][];
+			scancell2idx[chain_idx] = new int[cells];
+			for (int cell_idx = 0; cell_idx < cells; cell_idx++) {
+				ScanCell cell = chain.cells.get(cell_idx);
+				scancell2idx[chain_idx][cell_idx] = node2idx.get(cell.node);
+				HashSet<Cell> agg = cell2aggressorSet.get(cell);
+				idx = 0;
+				for (Cell n : agg)
+					if (node2idx.containsKey(n))
+						idx++;
+				aregions[chain_idx][cell_idx] = new int[idx];
+				idx = 0;
+				for (Cell n : agg)
+					if (node2idx.containsKey(n))
+						aregions[chain_idx][cell_idx][idx++] = node2idx.get(n);
+			}
+		}
+
+		idx2fanout = new int[node2idx.size()];
+		idx2X = new int[node2idx.size()];
+		idx2Y = new int[node2idx.size()];
+		for (Map.Entry<Cell, Integer> entry : node2idx.entrySet()){
+			idx2fanout[entry.getValue()] = entry.getKey().outputCount() + 1;
+			idx2X[entry.getValue()] = placement.getX(entry.getKey());
+			idx2Y[entry.getValue()] = placement.getY(entry.getKey());
+		}
+
+		aweights = new float[aregions.length][][];
+		for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++) {
+			aweights[chain_idx] = new float[aregions[chain_idx].length][];
+			for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++) {
+				aweights[chain_idx][cell_idx] = new float[aregions[chain_idx][cell_idx].length];
+				for (int agg_idx = 0; agg_idx < aregions[chain_idx][cell_idx].length; agg_idx++)
+					aweights[chain_idx][cell_idx][agg_idx] = aggressorWeight(chain_idx, cell_idx, agg_idx)
+							* (cellWeights != null ? cellWeights[chain_idx][cell_idx] : 1);
+			}
+		}
+
+		buildReverseIndex();
+		buildBitmasks();
+	}
+
+	/**
+	 * a model given directly by node indices into nodes, e.g. for tests without scan chains:
+	 * impacts[chain] are the nodes impacted by a chain and aregions[chain][cell] the aggressors of a
+	 * scan cell with the weights aweights[chain][cell].
+	 */
+	CostModel(Cell[] nodes, BitSet[] impacts, int[][][] aregions, float[][][] aweights) {
+		node2idx = new HashMap<>();
+		for (int idx = 0; idx < nodes.length; idx++)
+			node2idx.put(nodes[idx], idx);
+		this.impacts = impacts;
+		this.aregions = aregions;
+		this.aweights = aweights;
+		buildReverseIndex();
+		buildBitmasks();
+	}
+
+	private void buildReverseIndex() {
+		idx2node = new Cell[node2idx.size()];
+		for (Map.Entry<Cell, Integer> entry : node2idx.entrySet())
+			idx2node[entry.getValue()] = entry.getKey();
+
+		int chains = aregions.length;
+		cellBase = new int[chains + 1];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++)
+			cellBase[chain_idx + 1] = cellBase[chain_idx] + aregions[chain_idx].length;
+		int cells = cellBase[chains];
+		cell2chain = new int[cells];
+		cell2pos = new int[cells];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++) {
+			for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++) {
+				cell2chain[cellBase[chain_idx] + cell_idx] = chain_idx;
+				cell2pos[cellBase[chain_idx] + cell_idx] = cell_idx;
+			}
+		}
+
+		int nodes = node2idx.size();
+		node2cellStart = new int[nodes + 1];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++)
+			for (int[] region : aregions[chain_idx])
+				for (int n : region)
+					node2cellStart[n + 1]++;
+		for (int n = 0; n < nodes; n++)
+			node2cellStart[n + 1] += node2cellStart[n];
+
+		node2cell = new int[node2cellStart[nodes]];
+		if (aweights != null)
+			node2cellWeight = new float[node2cell.length];
+		int[] fill = Arrays.copyOf(node2cellStart, nodes);
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++) {
+			for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++) {
+				int[] region = aregions[chain_idx][cell_idx];
+				for (int agg_idx = 0; agg_idx < region.length; agg_idx++) {
+					int pos = fill[region[agg_idx]]++;
+					node2cell[pos] = cellBase[chain_idx] + cell_idx;
+					if (node2cellWeight != null)
+						node2cellWeight[pos] = aweights[chain_idx][cell_idx][agg_idx];
+				}
+			}
+		}
+	}
+
+	private void buildBitmasks() {
+		int words = (node2idx.size() + 63) >>> 6;
+		impactWords = new long[impacts.length][];
+		for (int chain_idx = 0; chain_idx < impacts.length; chain_idx++)
+			impactWords[chain_idx] = Arrays.copyOf(impacts[chain_idx].toLongArray(), words);
+
+		abits = new long[aregions.length][][];
+		abitsWord = new int[aregions.length][];
+		for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++) {
+			abits[chain_idx] = new long[aregions[chain_idx].length][];
+			abitsWord[chain_idx] = new int[aregions[chain_idx].length];
+			for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++) {
+				int[] region = aregions[chain_idx][cell_idx];
+				if (region.length == 0)
+					continue;
+				int min = Integer.MAX_VALUE;
+				int max = 0;
+				for (int n : region) {
+					min = Math.min(min, n);
+					max = Math.max(max, n);
+				}
+				int first = min >>> 6;
+				int span = (max >>> 6) - first + 1;
+				// a word costs about as much as a single index lookup.
+				if (span > region.length)
+					continue;
+				long[] bits = new long[span];
+				for (int n : region)
+					bits[(n >>> 6) - first] |= 1L << n;
+				abits[chain_idx][cell_idx] = bits;
+				abitsWord[chain_idx][cell_idx] = first;
+			}
+		}
+	}
+
+	/**
+	 * fanout weight of an aggressor, scaled down by its distance to the scan cell beyond one row height.
+	 */
+	private float aggressorWeight(int chain_idx, int cell_idx, int agg_idx) {
+		int cell = scancell2idx[chain_idx][cell_idx];
+		int agg = aregions[chain_idx][cell_idx][agg_idx];
+		int distance = Math.abs(idx2X[cell] - idx2X[agg]) + Math.abs(idx2Y[cell] - idx2Y[agg]);
+		if (distance <= row_height)
+			return (float) idx2fanout[agg] + 1;
+		return (float) (idx2fanout[agg] + 1) * row_height / distance;
+	}
+
+	int nodeCount() {
+		return node2idx.size();
+	}
+
+	int cellCount() {
+		return cell2chain.length;
+	}
+
+	/**
+	 * @return the scan cells (as chainIdx, cellIdx pairs) with the given node in their aggressor
+	 *         region.
+	 */
+	public int[][] cellsWithAggressor(Cell node) {
+		Integer n = node2idx.get(node);
+		if (n == null)
+			return new int[0][];
+		int[][] cells = new int[node2cellStart[n + 1] - node2cellStart[n]][];
+		for (int i = 0; i < cells.length; i++) {
+			int cell = node2cell[node2cellStart[n] + i];
+			cells[i] = new int[] { cell2chain[cell], cell2pos[cell] };
+		}
+		return cells;
+	}
+
+	/**
+	 * @return the aggressors of the given scan cell in the impact set of clock c, in aggressor region
+	 *         order. Only for reports, the cost functions work on counts.
+	 */
+	public ArrayList<Cell> activeAggressors(int chain_idx, int cell_idx, int[] clocking, int c) {
+		long[] union = new long[(node2idx.size() + 63) >>> 6];
+		for (int i = 0; i < clocking.length; i++) {
+			if (clocking[i] != c)
+				continue;
+			for (int w = 0; w < union.length; w++)
+				union[w] |= impactWords[i][w];
+		}
+		ArrayList<Cell> active = new ArrayList<>();
+		for (int n : aregions[chain_idx][cell_idx])
+			if (((union[n >>> 6] >>> n) & 1L) != 0)
+				active.add(idx2node[n]);
+		return active;
+	}
+
+}
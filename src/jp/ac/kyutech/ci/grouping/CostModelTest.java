@@ -0,0 +1,83 @@
+package jp.ac.kyutech.ci.grouping;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+import org.kyupi.circuit.Cell;
+import org.kyupi.circuit.CircuitTools;
+import org.kyupi.circuit.LevelizedCircuit;
+
+public class CostModelTest {
+
+	private static final String[] NAMES = { "a", "b", "c", "d", "p", "q", "r", "s", "t" };
+
+	@Test
+	public void testActiveAggressors() {
+		LevelizedCircuit circuit = CircuitTools.parseBench("INPUT(a) INPUT(b) INPUT(c) INPUT(d) OUTPUT(z) "
+				+ "p=AND(a,b) q=OR(b,c) r=NAND(c,d) s=NOR(p,q) t=AND(r,s) z=OR(t,a)").levelized();
+		Cell[] nodes = new Cell[NAMES.length];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = circuit.searchCellByName(NAMES[i]);
+
+		Random r = new Random(11);
+		int chains = 5;
+		int cells = 3;
+		int clocks = 3;
+		BitSet[] impacts = new BitSet[chains];
+		int[][][] aregions = new int[chains][cells][];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++) {
+			impacts[chain_idx] = new BitSet();
+			for (int n = 0; n < nodes.length; n++)
+				if (r.nextInt(3) == 0)
+					impacts[chain_idx].set(n);
+			for (int cell_idx = 0; cell_idx < cells; cell_idx++) {
+				int size = 0;
+				int[] region = new int[nodes.length];
+				for (int n = 0; n < nodes.length; n++)
+					if (r.nextBoolean())
+						region[size++] = n;
+				aregions[chain_idx][cell_idx] = Arrays.copyOf(region, size);
+			}
+		}
+		CostModel model = new CostModel(nodes, impacts, aregions, null);
+		FastCostFunction cost = new FastCostFunction(model);
+
+		for (int round = 0; round < 20; round++) {
+			int[] clocking = new int[chains];
+			for (int chain_idx = 0; chain_idx < chains; chain_idx++)
+				clocking[chain_idx] = r.nextInt(clocks);
+			int[][] counts = cost.activeAggressorCounts(clocking, clocks);
+
+			for (int chain_idx = 0; chain_idx < chains; chain_idx++) {
+				for (int cell_idx = 0; cell_idx < cells; cell_idx++) {
+					HashSet<Cell> aggressors = new HashSet<>();
+					for (int n : aregions[chain_idx][cell_idx])
+						aggressors.add(nodes[n]);
+					int max = 0;
+					for (int c = 0; c < clocks; c++) {
+						HashSet<Cell> clockImpactSet = new HashSet<>();
+						for (int i = 0; i < chains; i++)
+							if (clocking[i] == c)
+								for (int n = impacts[i].nextSetBit(0); n >= 0; n = impacts[i].nextSetBit(n + 1))
+									clockImpactSet.add(nodes[n]);
+						HashSet<Cell> expected = new HashSet<>(aggressors);
+						expected.retainAll(clockImpactSet);
+
+						ArrayList<Cell> active = model.activeAggressors(chain_idx, cell_idx, clocking, c);
+						assertEquals(expected.size(), active.size());
+						assertEquals(expected, new HashSet<>(active));
+						max = Math.max(max, active.size());
+					}
+					assertEquals(max, counts[chain_idx][cell_idx]);
+				}
+			}
+		}
+	}
+
+}
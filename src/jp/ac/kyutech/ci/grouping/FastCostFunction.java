@@ -6,168 +6,158 @@ import org.kyupi.circuit.Placement;
 import org.kyupi.circuit.ScanChains.ScanCell;
 import org.kyupi.circuit.ScanChains.ScanChain;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class FastCostFunction {
 
-	int row_height = 0;
-	HashMap<Cell, Integer> node2idx;
-	BitSet[] impacts;
-	int[][] scancell2idx;
-	int[][][] aregions;
-	int[] idx2fanout;
-	int[] idx2X;
-	int[] idx2Y;
-	float[] nodeCost;
+	final CostModel model;
+
+	// shortcuts to the model data.
+	final int row_height;
+	final HashMap<Cell, Integer> node2idx;
+	final BitSet[] impacts;
+	final int[][][] aregions;
+	final float[][][] aweights;
+	final int[] cell2chain;
+	final int[] cell2pos;
+	final int[] node2cellStart;
+	final int[] node2cell;
+	final float[] node2cellWeight;
+	final long[][] impactWords;
+	final long[][][] abits;
+	final int[][] abitsWord;
 
 	public FastCostFunction(HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
 							HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, CBInfo cbInfo){
-		node2idx = new HashMap<>();
-		int idx = 0;
-		for (HashSet<Cell> nodes : chain2impactSet.values())
-			for (Cell n : nodes)
-				if (!node2idx.containsKey(n))
-					node2idx.put(n, idx++);
-
-		impacts = new BitSet[chain2impactSet.keySet().size()];
-		for (ScanChain chain : chain2impactSet.keySet()) {
-			idx = chain.chainIdx();
-			impacts[idx] = new BitSet();
-			for (Cell n : chain2impactSet.get(chain))
-				impacts[idx].set(node2idx.get(n));
-		}
-
-		aregions = new int[impacts.length][][];
-		for (ScanChain chain : chain2impactSet.keySet()) {
-			int chain_idx = chain.chainIdx();
-			int cells = chain.cells.size();
-			aregions[chain_idx] = new int[cells][];
-			for (int cell_idx = 0; cell_idx < cells; cell_idx++) {
-				ScanCell cell = chain.cells.get(cell_idx);
-				HashSet<Cell> agg = cell2aggressorSet.get(cell);
-				idx = 0;
-				for (Cell n : agg)
-					if (node2idx.containsKey(n))
-						idx++;
-				aregions[chain_idx][cell_idx] = new int[idx];
-				idx = 0;
-				for (Cell n : agg)
-					if (node2idx.containsKey(n))
-						aregions[chain_idx][cell_idx][idx++] = node2idx.get(n);
-			}
-		}
-
-		nodeCost = new float[node2idx.size()];
-		for (Map.Entry<Cell, Integer> entry : node2idx.entrySet()){
-			String typename = entry.getKey().typeName();
-			if (cbInfo.all_clock_buffers.contains(entry.getKey())) {
-				nodeCost[entry.getValue()] = 1 * entry.getKey().inputCount();
-			}else if (typename.contains("AND")){
-				if (typename.contains("NAND")) {
-					nodeCost[entry.getValue()] = (float) 0.75;
-				}else {
-					nodeCost[entry.getValue()] = (float) 0.25;
-				}
-			}else if (typename.contains("OR")){
-				if (typename.contains("NOR")){
-					nodeCost[entry.getValue()] = (float) 0.25;
-				}else {
-					nodeCost[entry.getValue()] = (float) 0.75;
-				}
-			}else {
-				nodeCost[entry.getValue()] = (float) 0.5;
-			}
-		}
+		this(new CostModel(chain2impactSet, cell2aggressorSet, cbInfo));
 	}
 
 	public FastCostFunction(HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
 							HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, int row_height, Placement placement) {
+		this(new CostModel(chain2impactSet, cell2aggressorSet, row_height, placement));
+	}
 
-		this.row_height = row_height;
-
-		node2idx = new HashMap<>();
-		int idx = 0;
-		for (HashSet<Cell> nodes : chain2impactSet.values())
-			for (Cell n : nodes)
-				if (!node2idx.containsKey(n))
-					node2idx.put(n, idx++);
-
-		impacts = new BitSet[chain2impactSet.keySet().size()];
-		for (ScanChain chain : chain2impactSet.keySet()) {
-			idx = chain.chainIdx();
-			impacts[idx] = new BitSet();
-			for (Cell n : chain2impactSet.get(chain))
-				impacts[idx].set(node2idx.get(n));
-		}
-
-		aregions = new int[impacts.length][][];
-		scancell2idx = new int[impacts.length][];
-		for (ScanChain chain : chain2impactSet.keySet()) {
-			int chain_idx = chain.chainIdx();
-			int cells = chain.cells.size();
-			aregions[chain_idx] = new int[cells][];
-			scancell2idx[chain_idx] = new int[cells];
-			for (int cell_idx = 0; cell_idx < cells; cell_idx++) {
-				ScanCell cell = chain.cells.get(cell_idx);
-				scancell2idx[chain_idx][cell_idx] = node2idx.get(cell.node);
-				HashSet<Cell> agg = cell2aggressorSet.get(cell);
-				idx = 0;
-				for (Cell n : agg)
-					if (node2idx.containsKey(n))
-						idx++;
-				aregions[chain_idx][cell_idx] = new int[idx];
-				idx = 0;
-				for (Cell n : agg)
-					if (node2idx.containsKey(n))
-						aregions[chain_idx][cell_idx][idx++] = node2idx.get(n);
-			}
+	public FastCostFunction(CostModel model) {
+		this.model = model;
+		row_height = model.row_height;
+		node2idx = model.node2idx;
+		impacts = model.impacts;
+		aregions = model.aregions;
+		aweights = model.aweights;
+		cell2chain = model.cell2chain;
+		cell2pos = model.cell2pos;
+		node2cellStart = model.node2cellStart;
+		node2cell = model.node2cell;
+		node2cellWeight = model.node2cellWeight;
+		impactWords = model.impactWords;
+		abits = model.abits;
+		abitsWord = model.abitsWord;
+	}
+
+	public CostModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return the number of nodes in the aggressor region of the given scan cell that are set in union.
+	 */
+	private int overlap(int chain_idx, int cell_idx, long[] union) {
+		long[] bits = abits[chain_idx][cell_idx];
+		int cost = 0;
+		if (bits != null) {
+			int first = abitsWord[chain_idx][cell_idx];
+			for (int w = 0; w < bits.length; w++)
+				cost += Long.bitCount(bits[w] & union[first + w]);
+		} else {
+			for (int n : aregions[chain_idx][cell_idx])
+				cost += (int) (union[n >>> 6] >>> n) & 1;
+		}
+		return cost;
+	}
+
+	private void unionOf(int[] clocking, int c, long[] union) {
+		Arrays.fill(union, 0L);
+		for (int chainIdx = 0; chainIdx < impactWords.length; chainIdx++) {
+			if (clocking[chainIdx] != c)
+				continue;
+			long[] impact = impactWords[chainIdx];
+			for (int w = 0; w < union.length; w++)
+				union[w] |= impact[w];
+		}
+	}
+
+	/**
+	 * @return the summed weights of the nodes in the aggressor region of the given scan cell that are
+	 *         set in union.
+	 */
+	private float weightedOverlap(int chain_idx, int cell_idx, long[] union) {
+		int[] region = aregions[chain_idx][cell_idx];
+		float[] weight = aweights[chain_idx][cell_idx];
+		float cost = 0;
+		for (int agg_idx = 0; agg_idx < region.length; agg_idx++) {
+			if (((union[region[agg_idx] >>> 6] >>> region[agg_idx]) & 1L) != 0)
+				cost += weight[agg_idx];
 		}
+		return cost;
+	}
+
+	/**
+	 * Mutable state of evaluations: the impact union buffer and the location of the last worst scan
+	 * cell. The index data of FastCostFunction is never modified after construction, so any number of
+	 * threads can evaluate concurrently as long as each uses its own Context.
+	 */
+	public class Context {
+
+		private final long[] impactUnion = new long[(node2idx.size() + 63) >>> 6];
+
+		private int last_chain_idx = 0;
+
+		private int last_cell_idx = 0;
+
+		private int last_clock_idx = 0;
 
-		idx2fanout = new int[node2idx.size()];
-		idx2X = new int[node2idx.size()];
-		idx2Y = new int[node2idx.size()];
-		for (Map.Entry<Cell, Integer> entry : node2idx.entrySet()){
-			idx2fanout[entry.getValue()] = entry.getKey().outputCount() + 1;
-			idx2X[entry.getValue()] = placement.getX(entry.getKey());
-			idx2Y[entry.getValue()] = placement.getY(entry.getKey());
+		public int getLastWorstClockIdx() {
+			return last_clock_idx;
 		}
 	}
 
-	private BitSet impactUnion = new BitSet();
+	// context used by the methods without explicit Context argument.
+	private final ThreadLocal<Context> threadContext = new ThreadLocal<Context>() {
+		@Override
+		protected Context initialValue() {
+			return new Context();
+		}
+	};
+
+	public Context newContext() {
+		return new Context();
+	}
 
-	private int last_chain_idx = 0;
-	
-	private int last_cell_idx = 0;
-	
-	private int last_clock_idx = 0;
-	
 	public int evaluate(int[] clocking, int clocks) {
+		return evaluate(threadContext.get(), clocking, clocks);
+	}
+
+	public int evaluate(Context ctx, int[] clocking, int clocks) {
 
 		int maxCost = 0;
 
 		for (int c = 0; c < clocks; c++) {
 			// compute sets of possibly active nodes current staggered clock.
-			impactUnion.clear();
-			for (int chainIdx = 0; chainIdx < impacts.length; chainIdx++) {
-				if (clocking[chainIdx] == c)
-					//copy impacts[chainIdx] to bitset impactUnion
-					impactUnion.or(impacts[chainIdx]);
-			}
+			unionOf(clocking, c, ctx.impactUnion);
 			for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++) {
 				for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++) {
-					int cost = 0;
-					for (int agg_idx = 0; agg_idx < aregions[chain_idx][cell_idx].length; agg_idx++) {
-						if (impactUnion.get(aregions[chain_idx][cell_idx][agg_idx]))
-							cost++;
-					}
+					int cost = overlap(chain_idx, cell_idx, ctx.impactUnion);
 					if (cost > maxCost) {
 						maxCost = cost;
-						last_chain_idx = chain_idx;
-						last_cell_idx = cell_idx;
-						last_clock_idx = c;
+						ctx.last_chain_idx = chain_idx;
+						ctx.last_cell_idx = cell_idx;
+						ctx.last_clock_idx = c;
 					}
 				}
 			}
@@ -176,40 +166,24 @@ public class FastCostFunction {
 	}
 
 	public float evaluate_float(int[] clocking, int clocks) {
+		return evaluate_float(threadContext.get(), clocking, clocks);
+	}
+
+	public float evaluate_float(Context ctx, int[] clocking, int clocks) {
 
 		float maxCost = 0;
 
 		for (int c = 0; c < clocks; c++) {
 			// compute sets of possibly active nodes current staggered clock.
-			impactUnion.clear();
-			for (int chainIdx = 0; chainIdx < impacts.length; chainIdx++) {
-				if (clocking[chainIdx] == c)
-					//copy impacts[chainIdx] to bitset impactUnion
-					impactUnion.or(impacts[chainIdx]);
-			}
+			unionOf(clocking, c, ctx.impactUnion);
 			for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++) {
 				for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++) {
-					float cost = 0;
-					for (int agg_idx = 0; agg_idx < aregions[chain_idx][cell_idx].length; agg_idx++) {
-						if (impactUnion.get(aregions[chain_idx][cell_idx][agg_idx])) {
-							if (Math.abs(idx2X[scancell2idx[chain_idx][cell_idx]] - idx2X[aregions[chain_idx][cell_idx][agg_idx]])
-									+ Math.abs(idx2Y[scancell2idx[chain_idx][cell_idx]] - idx2Y[aregions[chain_idx][cell_idx][agg_idx]])<=row_height){
-								cost += (float)idx2fanout[aregions[chain_idx][cell_idx][agg_idx]] + 1;
-							}else{
-								cost += (float)(idx2fanout[aregions[chain_idx][cell_idx][agg_idx]] + 1) * row_height /
-										(Math.abs(idx2X[scancell2idx[chain_idx][cell_idx]] - idx2X[aregions[chain_idx][cell_idx][agg_idx]])
-												+ Math.abs(idx2Y[scancell2idx[chain_idx][cell_idx]] - idx2Y[aregions[chain_idx][cell_idx][agg_idx]]));
-								/*System.out.println("check the cost" + (float)(idx2fanout[aregions[chain_idx][cell_idx][agg_idx]] + 1) * row_height /
-										(Math.abs(idx2X[scancell2idx[chain_idx][cell_idx]] - idx2X[aregions[chain_idx][cell_idx][agg_idx]])
-												+ Math.abs(idx2Y[scancell2idx[chain_idx][cell_idx]] - idx2Y[aregions[chain_idx][cell_idx][agg_idx]])));*/
-							}
-						}
-					}
+					float cost = weightedOverlap(chain_idx, cell_idx, ctx.impactUnion);
 					if (cost > maxCost) {
 						maxCost = cost;
-						last_chain_idx = chain_idx;
-						last_cell_idx = cell_idx;
-						last_clock_idx = c;
+						ctx.last_chain_idx = chain_idx;
+						ctx.last_cell_idx = cell_idx;
+						ctx.last_clock_idx = c;
 					}
 				}
 			}
@@ -218,22 +192,17 @@ public class FastCostFunction {
 	}
 
 	public boolean evaluate_usable(int[] clocking, int clocks, float threshold) {
+		return evaluate_usable(threadContext.get(), clocking, clocks, threshold);
+	}
+
+	public boolean evaluate_usable(Context ctx, int[] clocking, int clocks, float threshold) {
 		boolean usable = true;
 
 		for (int c = 0; c < clocks; c++) {
-			impactUnion.clear();
-			for (int chainIdx = 0; chainIdx < impacts.length; chainIdx++) {
-				if (clocking[chainIdx] == c)
-					//copy impacts[chainIdx] to bitset impactUnion
-					impactUnion.or(impacts[chainIdx]);
-			}
+			unionOf(clocking, c, ctx.impactUnion);
 			for (int chainIdx = 0; chainIdx < aregions.length; chainIdx++) {
 				for (int cellIdx = 0; cellIdx < aregions[chainIdx].length; cellIdx++){
-					float cost = 0;
-					for (int aggIdx = 0; aggIdx < aregions[chainIdx][cellIdx].length; aggIdx++){
-						if (impactUnion.get(aregions[chainIdx][cellIdx][aggIdx]))
-							cost++;
-					}
+					float cost = overlap(chainIdx, cellIdx, ctx.impactUnion);
 					if (cost == 0)
 						continue;
 					if (cost > threshold)
@@ -245,9 +214,237 @@ public class FastCostFunction {
 		}
 		return usable;
 	}
-	
+
+	/**
+	 * like evaluate, but stops as soon as a scan cell exceeds bound. The clock and the scan cell that
+	 * were worst in the last evaluation are checked first.
+	 * 
+	 * @return the exact cost if it is at most bound, otherwise some value greater than bound.
+	 */
+	public int evaluateBounded(int[] clocking, int clocks, int bound) {
+		return (int) evaluateBounded(threadContext.get(), clocking, clocks, bound, false);
+	}
+
+	/**
+	 * like evaluate_float, but stops as soon as a scan cell exceeds bound. The clock and the scan cell
+	 * that were worst in the last evaluation are checked first.
+	 * 
+	 * @return the exact cost if it is at most bound, otherwise some value greater than bound.
+	 */
+	public float evaluateBounded_float(int[] clocking, int clocks, float bound) {
+		return evaluateBounded(threadContext.get(), clocking, clocks, bound, true);
+	}
+
+	public float evaluateBounded(Context ctx, int[] clocking, int clocks, float bound, boolean weighted) {
+		float maxCost = 0;
+		int first_clock = ctx.last_clock_idx < clocks ? ctx.last_clock_idx : 0;
+		int first_chain = ctx.last_chain_idx;
+		int first_cell = ctx.last_cell_idx;
+		int worst_clock = 0;
+		int worst_chain = 0;
+		int worst_cell = 0;
+
+		for (int i = 0; i < clocks; i++) {
+			// last worst clock first, then all others in order.
+			int c = (i == 0) ? first_clock : (i <= first_clock ? i - 1 : i);
+			unionOf(clocking, c, ctx.impactUnion);
+			if (i == 0 && first_chain < aregions.length && first_cell < aregions[first_chain].length) {
+				float cost = weighted ? weightedOverlap(first_chain, first_cell, ctx.impactUnion)
+						: overlap(first_chain, first_cell, ctx.impactUnion);
+				if (cost > bound)
+					return cost;
+				if (cost > maxCost) {
+					maxCost = cost;
+					worst_clock = c;
+					worst_chain = first_chain;
+					worst_cell = first_cell;
+				}
+			}
+			for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++) {
+				for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++) {
+					float cost = weighted ? weightedOverlap(chain_idx, cell_idx, ctx.impactUnion)
+							: overlap(chain_idx, cell_idx, ctx.impactUnion);
+					if (cost > bound) {
+						ctx.last_chain_idx = chain_idx;
+						ctx.last_cell_idx = cell_idx;
+						ctx.last_clock_idx = c;
+						return cost;
+					}
+					if (cost > maxCost) {
+						maxCost = cost;
+						worst_clock = c;
+						worst_chain = chain_idx;
+						worst_cell = cell_idx;
+					}
+				}
+			}
+		}
+		if (maxCost > 0) {
+			ctx.last_chain_idx = worst_chain;
+			ctx.last_cell_idx = worst_cell;
+			ctx.last_clock_idx = worst_clock;
+		}
+		return maxCost;
+	}
+
+	/**
+	 * parallel version of evaluate. Clocks and scan cell ranges are evaluated on the common
+	 * ForkJoinPool. The result and the recorded worst scan cell are the same as for evaluate.
+	 */
+	public int evaluateParallel(int[] clocking, int clocks) {
+		return (int) evaluateParallel(threadContext.get(), clocking, clocks, false);
+	}
+
+	/**
+	 * parallel version of evaluate_float. Clocks and scan cell ranges are evaluated on the common
+	 * ForkJoinPool. The result and the recorded worst scan cell are the same as for evaluate_float.
+	 */
+	public float evaluateParallel_float(int[] clocking, int clocks) {
+		return evaluateParallel(threadContext.get(), clocking, clocks, true);
+	}
+
+	public float evaluateParallel(Context ctx, int[] clocking, int clocks, boolean weighted) {
+		long[][] unions = new long[clocks][];
+		ForkJoinPool.commonPool().invoke(new UnionTask(clocking, unions, 0, clocks));
+		Worst worst = ForkJoinPool.commonPool()
+				.invoke(new CellRangeTask(unions, weighted, 0, (long) clocks * cellCount()));
+		if (worst.clock >= 0) {
+			ctx.last_chain_idx = cell2chain[worst.cell];
+			ctx.last_cell_idx = cell2pos[worst.cell];
+			ctx.last_clock_idx = worst.clock;
+		}
+		return worst.cost;
+	}
+
+	private static final int PARALLEL_CELL_THRESHOLD = 2048;
+
+	private static class Worst {
+		float cost = 0;
+		int clock = -1;
+		int cell = -1;
+	}
+
+	private class UnionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] clocking;
+		private final long[][] unions;
+		private final int from, to;
+
+		UnionTask(int[] clocking, long[][] unions, int from, int to) {
+			this.clocking = clocking;
+			this.unions = unions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new UnionTask(clocking, unions, from, mid), new UnionTask(clocking, unions, mid, to));
+				return;
+			}
+			for (int c = from; c < to; c++) {
+				unions[c] = new long[(node2idx.size() + 63) >>> 6];
+				unionOf(clocking, c, unions[c]);
+			}
+		}
+	}
+
+	// covers the work items from..to-1 with item = clock * cellCount() + flat scan cell index.
+	private class CellRangeTask extends RecursiveTask<Worst> {
+		private static final long serialVersionUID = 1L;
+		private final long[][] unions;
+		private final boolean weighted;
+		private final long from, to;
+
+		CellRangeTask(long[][] unions, boolean weighted, long from, long to) {
+			this.unions = unions;
+			this.weighted = weighted;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Worst compute() {
+			if (to - from > PARALLEL_CELL_THRESHOLD) {
+				long mid = (from + to) >>> 1;
+				CellRangeTask left = new CellRangeTask(unions, weighted, from, mid);
+				CellRangeTask right = new CellRangeTask(unions, weighted, mid, to);
+				right.fork();
+				Worst l = left.compute();
+				Worst r = right.join();
+				// on ties, keep the earlier scan cell like the sequential evaluation does.
+				return r.cost > l.cost ? r : l;
+			}
+			Worst worst = new Worst();
+			int cells = cellCount();
+			for (long item = from; item < to; item++) {
+				int c = (int) (item / cells);
+				int cell = (int) (item % cells);
+				float cost = weighted ? weightedOverlap(cell2chain[cell], cell2pos[cell], unions[c])
+						: overlap(cell2chain[cell], cell2pos[cell], unions[c]);
+				if (cost > worst.cost) {
+					worst.cost = cost;
+					worst.clock = c;
+					worst.cell = cell;
+				}
+			}
+			return worst;
+		}
+	}
+
+	/**
+	 * @return for each scan cell [chain_idx][cell_idx] the largest number of its aggressors in the
+	 *         impact set of a single clock.
+	 */
+	public int[][] activeAggressorCounts(int[] clocking, int clocks) {
+		long[] union = new long[(node2idx.size() + 63) >>> 6];
+		int[][] counts = new int[aregions.length][];
+		for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++)
+			counts[chain_idx] = new int[aregions[chain_idx].length];
+		for (int c = 0; c < clocks; c++) {
+			unionOf(clocking, c, union);
+			for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++)
+				for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++)
+					counts[chain_idx][cell_idx] = Math.max(counts[chain_idx][cell_idx],
+							overlap(chain_idx, cell_idx, union));
+		}
+		return counts;
+	}
+
+	/**
+	 * @return for each scan cell [chain_idx][cell_idx] the number of its aggressors in the impact set of
+	 *         its own chain.
+	 */
+	public int[][] selfAggressorCounts() {
+		int[][] counts = new int[aregions.length][];
+		for (int chain_idx = 0; chain_idx < aregions.length; chain_idx++) {
+			counts[chain_idx] = new int[aregions[chain_idx].length];
+			for (int cell_idx = 0; cell_idx < aregions[chain_idx].length; cell_idx++)
+				counts[chain_idx][cell_idx] = overlap(chain_idx, cell_idx, impactWords[chain_idx]);
+		}
+		return counts;
+	}
+
 	public int getLastWorstClockIdx() {
-		return last_clock_idx;
+		return threadContext.get().last_clock_idx;
+	}
+
+	int nodeCount() {
+		return model.nodeCount();
+	}
+
+	int cellCount() {
+		return model.cellCount();
+	}
+
+	/**
+	 * @return the scan cells (as chainIdx, cellIdx pairs) with the given node in their aggressor
+	 *         region.
+	 */
+	public int[][] cellsWithAggressor(Cell node) {
+		return model.cellsWithAggressor(node);
 	}
 
 }
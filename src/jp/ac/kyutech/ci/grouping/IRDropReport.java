@@ -0,0 +1,196 @@
+package jp.ac.kyutech.ci.grouping;
+
+import org.apache.log4j.Logger;
+import org.kyupi.circuit.ScanChains;
+import org.kyupi.circuit.ScanChains.ScanChain;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * IR-drop of the scan cells from a signoff report. Every line containing "reg" is a flip-flop entry
+ * with single space separated fields: field 3 is the worst supply voltage and field 5 the instance
+ * name. The drop is the nominal voltage minus the reported one.
+ *
+ * The report is memory-mapped and parsed in one pass without creating strings for the voltages. Drops
+ * are kept per chain and cell in a primitive array, so they can be used as cell weights of the
+ * CostModel. Cells missing in the report have a drop of 0.
+ */
+public class IRDropReport {
+
+	protected static Logger log = Logger.getLogger(IRDropReport.class);
+
+	public static final float NOMINAL_VOLTAGE = 1.2f;
+
+	// drop that corresponds to 100 percent in the histogram.
+	private static final float HISTOGRAM_SCALE = 3.096f;
+
+	private static final int VOLTAGE_FIELD = 3;
+	private static final int NAME_FIELD = 5;
+
+	private final float[][] drop;
+
+	private final long[] histogram = new long[101];
+	private int entries = 0;
+	private int resolved = 0;
+	private double sum = 0;
+	private float max = 0;
+	private long maxLine = 0;
+
+	public IRDropReport(File f, ScanChains chains) throws IOException {
+		log.info("Loading ir-droplist " + f);
+		HashMap<String, int[]> name2cell = new HashMap<>();
+		drop = new float[chains.size()][];
+		for (int chain_idx = 0; chain_idx < chains.size(); chain_idx++) {
+			ScanChain chain = chains.get(chain_idx);
+			drop[chain_idx] = new float[chain.cells.size()];
+			for (int cell_idx = 0; cell_idx < chain.cells.size(); cell_idx++)
+				name2cell.put(chain.cells.get(cell_idx).node.name().replace("\\", ""),
+						new int[] { chain_idx, cell_idx });
+		}
+
+		long line = 0;
+		int[] fieldStart = new int[NAME_FIELD + 2];
+		for (ByteBuffer buf : MappedFile.mapLines(f)) {
+			int limit = buf.limit();
+			int lineStart = 0;
+			while (lineStart < limit) {
+				int lineEnd = MappedFile.lineEnd(buf, lineStart);
+				line++;
+				if (containsReg(buf, lineStart, lineEnd) && fields(buf, lineStart, lineEnd, fieldStart) > NAME_FIELD) {
+					float d = NOMINAL_VOLTAGE - (float) parseDecimal(buf, fieldStart[VOLTAGE_FIELD],
+							fieldStart[VOLTAGE_FIELD + 1] - 1);
+					add(d, line);
+					int[] cell = name2cell.get(name(buf, fieldStart[NAME_FIELD], fieldStart[NAME_FIELD + 1] - 1));
+					if (cell != null) {
+						drop[cell[0]][cell[1]] = Math.max(drop[cell[0]][cell[1]], d);
+						resolved++;
+					}
+				}
+				lineStart = lineEnd + 1;
+			}
+		}
+		if (resolved < entries)
+			log.warn("IRDropUnresolved " + (entries - resolved) + " of " + entries + " entries match no scan cell.");
+	}
+
+	private void add(float d, long line) {
+		entries++;
+		sum += d;
+		if (d > max) {
+			max = d;
+			maxLine = line;
+		}
+		int percentage = Math.round(d / HISTOGRAM_SCALE * 100);
+		histogram[Math.max(0, Math.min(100, percentage))]++;
+	}
+
+	private static boolean containsReg(ByteBuffer buf, int from, int to) {
+		for (int p = from; p + 3 <= to; p++)
+			if (buf.get(p) == 'r' && buf.get(p + 1) == 'e' && buf.get(p + 2) == 'g')
+				return true;
+		return false;
+	}
+
+	/**
+	 * finds the starts of the first start.length - 1 fields of a line, separated by single spaces.
+	 * start[i + 1] - 1 is the end of field i.
+	 *
+	 * @return the number of fields found, at most start.length - 1.
+	 */
+	private static int fields(ByteBuffer buf, int from, int to, int[] start) {
+		if (to > from && buf.get(to - 1) == '\r')
+			to--;
+		int n = 0;
+		start[n++] = from;
+		for (int p = from; p < to && n < start.length; p++)
+			if (buf.get(p) == ' ')
+				start[n++] = p + 1;
+		if (n < start.length)
+			start[n] = to + 1;
+		return n == start.length ? n - 1 : n;
+	}
+
+	private static double parseDecimal(ByteBuffer buf, int from, int to) {
+		int p = from;
+		boolean negative = false;
+		if (p < to && (buf.get(p) == '-' || buf.get(p) == '+'))
+			negative = buf.get(p++) == '-';
+		double value = 0;
+		double scale = 0;
+		boolean digits = false;
+		for (; p < to; p++) {
+			byte b = buf.get(p);
+			if (b >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				if (scale != 0)
+					scale *= 10;
+				digits = true;
+			} else if (b == '.' && scale == 0) {
+				scale = 1;
+			} else {
+				break;
+			}
+		}
+		if (scale > 1)
+			value /= scale;
+		if (p < to && (buf.get(p) == 'e' || buf.get(p) == 'E'))
+			value *= Math.pow(10, parseDecimal(buf, p + 1, to));
+		else if (p < to || !digits)
+			throw new NumberFormatException("not a voltage: " + name(buf, from, to));
+		return negative ? -value : value;
+	}
+
+	private static String name(ByteBuffer buf, int from, int to) {
+		StringBuilder sb = new StringBuilder(to - from);
+		for (int p = from; p < to; p++) {
+			char c = (char) (buf.get(p) & 0xff);
+			if (c != '\\')
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the drop of the given scan cell, 0 if it is not in the report.
+	 */
+	public float drop(int chain_idx, int cell_idx) {
+		return drop[chain_idx][cell_idx];
+	}
+
+	/**
+	 * @return cell weights 1 + alpha * drop / max drop, indexed by chain and cell like the aggressor
+	 *         regions of the CostModel.
+	 */
+	public float[][] weights(float alpha) {
+		float[][] w = new float[drop.length][];
+		for (int chain_idx = 0; chain_idx < drop.length; chain_idx++) {
+			w[chain_idx] = new float[drop[chain_idx].length];
+			for (int cell_idx = 0; cell_idx < w[chain_idx].length; cell_idx++)
+				w[chain_idx][cell_idx] = max > 0 ? 1 + alpha * drop[chain_idx][cell_idx] / max : 1;
+		}
+		return w;
+	}
+
+	public float max() {
+		return max;
+	}
+
+	public double mean() {
+		return entries == 0 ? 0 : sum / entries;
+	}
+
+	/**
+	 * prints the number of flip-flops per percent of drop and logs max and average.
+	 */
+	public void printStatistics(PrintStream out) {
+		for (int per = 1; per <= 100; per++)
+			out.println(per + " " + histogram[per]);
+		log.info("IRDropEntries " + entries + " Resolved " + resolved);
+		log.info("MaxIRdropOnFF " + max + " lineNum " + maxLine);
+		log.info("AvgIRdropOnFFs " + (float) mean());
+	}
+}
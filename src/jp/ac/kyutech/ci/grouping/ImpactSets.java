@@ -0,0 +1,206 @@
+package jp.ac.kyutech.ci.grouping;
+
+import jp.ac.kyutech.ci.grouping.Main.CBInfo;
+import org.kyupi.circuit.Cell;
+import org.kyupi.circuit.ScanChains;
+import org.kyupi.circuit.ScanChains.ScanCell;
+import org.kyupi.circuit.ScanChains.ScanChain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Impact sets of all scan chains in a single sweep over the combinational logic.
+ *
+ * Every node gets a chain bitmask of words long words. The scan cells seed the bit of their chain,
+ * and the masks are or-ed forward in topological order. A node is in the impact set of every chain
+ * in its mask. Sequential nodes receive masks but do not pass them on, so the result is the union of
+ * the combinational output cones of the scan cells of each chain, as collectCombinationalOutputCone
+ * would return them, without traversing overlapping cones more than once.
+ */
+public class ImpactSets {
+
+	private final int words;
+
+	private final HashMap<Cell, Integer> node2idx = new HashMap<>();
+	private final ArrayList<Cell> nodes = new ArrayList<>();
+
+	// member[n * words .. n * words + words - 1] are the chains with node n in their cone.
+	private long[] member;
+
+	// prop[n * words ..] are the chains propagated through node n to its successors.
+	private long[] prop;
+
+	private ImpactSets(int chains) {
+		words = (chains + 63) / 64;
+	}
+
+	/**
+	 * fills chain2impactSet with the output cones, scan cells and clock buffers of each chain. Pseudo
+	 * nodes are removed.
+	 */
+	public static void calculate(ScanChains chains, CBInfo cbinfo, HashMap<ScanChain, HashSet<Cell>> chain2impactSet) {
+		ImpactSets is = new ImpactSets(chains.size());
+		int[] order = is.sweep(chains);
+		is.propagate(order);
+
+		ArrayList<HashSet<Cell>> sets = new ArrayList<>();
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
+			ScanChain chain = chains.get(chainIdx);
+			HashSet<Cell> impactSet = new HashSet<>();
+			for (ScanCell cell : chain.cells) {
+				impactSet.add(cell.node);
+				HashSet<Cell> cb = cbinfo.sff_to_clock_buffer_set.get(cell.node);
+				if (cb != null)
+					impactSet.addAll(cb);
+			}
+			sets.add(impactSet);
+		}
+		is.collect(sets);
+
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
+			HashSet<Cell> impactSet = sets.get(chainIdx);
+			impactSet.removeIf(n -> n.isPseudo());
+			chain2impactSet.put(chains.get(chainIdx), impactSet);
+		}
+	}
+
+	private int index(Cell n) {
+		Integer idx = node2idx.get(n);
+		if (idx == null) {
+			idx = nodes.size();
+			node2idx.put(n, idx);
+			nodes.add(n);
+		}
+		return idx;
+	}
+
+	private static boolean expands(Cell n) {
+		return !n.isSequential();
+	}
+
+	/**
+	 * numbers all nodes reachable from the scan cells, seeds the masks and returns the reachable
+	 * combinational nodes in topological order (reverse DFS post-order).
+	 */
+	private int[] sweep(ScanChains chains) {
+		ArrayList<Integer> seeds = new ArrayList<>();
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++)
+			for (ScanCell cell : chains.get(chainIdx).cells)
+				seeds.add(index(cell.node));
+
+		int[] postorder = new int[16];
+		int post = 0;
+		int[] stackNode = new int[16];
+		int[] stackPos = new int[16];
+		boolean[] visited = new boolean[nodes.size()];
+		for (int seed : seeds) {
+			if (seed < visited.length && visited[seed])
+				continue;
+			int sp = 0;
+			stackNode[sp] = seed;
+			stackPos[sp++] = 0;
+			visited = mark(visited, seed);
+			while (sp > 0) {
+				Cell n = nodes.get(stackNode[sp - 1]);
+				int pos = stackPos[sp - 1]++;
+				if (pos < n.outputCount()) {
+					Cell s = n.outputCellAt(pos);
+					if (s == null)
+						continue;
+					int sidx = index(s);
+					if (!expands(s) || (sidx < visited.length && visited[sidx]))
+						continue;
+					visited = mark(visited, sidx);
+					if (sp == stackNode.length) {
+						stackNode = Arrays.copyOf(stackNode, sp * 2);
+						stackPos = Arrays.copyOf(stackPos, sp * 2);
+					}
+					stackNode[sp] = sidx;
+					stackPos[sp++] = 0;
+				} else {
+					sp--;
+					if (expands(n)) {
+						if (post == postorder.length)
+							postorder = Arrays.copyOf(postorder, post * 2);
+						postorder[post++] = stackNode[sp];
+					}
+				}
+			}
+		}
+
+		member = new long[nodes.size() * words];
+		prop = new long[nodes.size() * words];
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++)
+			for (ScanCell cell : chains.get(chainIdx).cells)
+				prop[node2idx.get(cell.node) * words + (chainIdx >> 6)] |= 1L << chainIdx;
+
+		int[] order = new int[post];
+		for (int i = 0; i < post; i++)
+			order[i] = postorder[post - 1 - i];
+		return order;
+	}
+
+	private boolean[] mark(boolean[] visited, int idx) {
+		if (idx >= visited.length)
+			visited = Arrays.copyOf(visited, Math.max(idx + 1, visited.length * 2));
+		visited[idx] = true;
+		return visited;
+	}
+
+	/**
+	 * pushes the masks of the scan cells and then of all combinational nodes in topological order to
+	 * their successors.
+	 */
+	private void propagate(int[] order) {
+		for (int i = 0; i < nodes.size(); i++)
+			if (!expands(nodes.get(i)))
+				push(i);
+		for (int n : order)
+			push(n);
+	}
+
+	private void push(int n) {
+		int base = n * words;
+		boolean any = false;
+		for (int w = 0; w < words; w++)
+			any |= prop[base + w] != 0L;
+		if (!any)
+			return;
+		Cell c = nodes.get(n);
+		for (int pos = 0; pos < c.outputCount(); pos++) {
+			Cell s = c.outputCellAt(pos);
+			if (s == null)
+				continue;
+			int sbase = node2idx.get(s) * words;
+			if (words == 1) {
+				member[sbase] |= prop[base];
+				if (expands(s))
+					prop[sbase] |= prop[base];
+			} else {
+				boolean exp = expands(s);
+				for (int w = 0; w < words; w++) {
+					member[sbase + w] |= prop[base + w];
+					if (exp)
+						prop[sbase + w] |= prop[base + w];
+				}
+			}
+		}
+	}
+
+	private void collect(ArrayList<HashSet<Cell>> sets) {
+		for (int n = 0; n < nodes.size(); n++) {
+			int base = n * words;
+			for (int w = 0; w < words; w++) {
+				long m = member[base + w];
+				while (m != 0L) {
+					int bit = Long.numberOfTrailingZeros(m);
+					sets.get((w << 6) + bit).add(nodes.get(n));
+					m &= m - 1;
+				}
+			}
+		}
+	}
+}
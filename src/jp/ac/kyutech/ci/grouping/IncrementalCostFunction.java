@@ -0,0 +1,294 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Stateful counterpart of FastCostFunction for local search. It holds a current clocking and keeps
+ * for every clock the number of assigned chains impacting each node and the running cost of each
+ * scan cell. Moving a single chain only touches the nodes of its impact set and the scan cells whose
+ * aggressor regions contain them.
+ *
+ * Costs are accumulated in fixed point, so undo() restores the previous state exactly.
+ *
+ * Optionally, a tournament tree per clock keeps the worst scan cell up to date with every cost
+ * change. The maximum is then found in O(clocks) even after a chain left the worst clock, instead of
+ * by a scan over all scan cells. This pays off for long walks of single moves.
+ */
+public class IncrementalCostFunction {
+
+	private static final double SCALE = 1 << 24;
+
+	private final int clocks;
+
+	private final FastCostFunction cost;
+
+	private int[][] impactNodes;
+
+	// fixed point weights parallel to cost.node2cell
+	private long[] node2weights;
+
+	private int[] clocking;
+	private int[][] active;
+	private long[][] cellCost;
+
+	// maxTree[clock][i] is the worst scan cell below tree node i, leaves at treeSize + cell, -1 for
+	// padding. null if not enabled.
+	private int[][] maxTree;
+	private int treeSize;
+
+	private long maxCost;
+	private int maxClock;
+	private int maxCell;
+	private boolean maxValid;
+
+	private int undoSize = 0;
+	private int[] undoChain = new int[16];
+	private int[] undoClock = new int[16];
+	private long[] undoMaxCost = new long[16];
+	private int[] undoMaxClock = new int[16];
+	private int[] undoMaxCell = new int[16];
+	private boolean[] undoMaxValid = new boolean[16];
+
+	/**
+	 * @param weighted
+	 *            true to sum up aggressor weights like evaluate_float, false to count aggressors like
+	 *            evaluate.
+	 */
+	public IncrementalCostFunction(FastCostFunction cost, int clocks, boolean weighted) {
+		this(cost, clocks, weighted, false);
+	}
+
+	/**
+	 * @param maxTree
+	 *            true to track the worst scan cell of each clock in a tournament tree.
+	 */
+	public IncrementalCostFunction(FastCostFunction cost, int clocks, boolean weighted, boolean maxTree) {
+		this.cost = cost;
+		this.clocks = clocks;
+		int chains = cost.impacts.length;
+		int nodes = cost.nodeCount();
+
+		impactNodes = new int[chains][];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++) {
+			BitSet impact = cost.impacts[chain_idx];
+			impactNodes[chain_idx] = new int[impact.cardinality()];
+			int i = 0;
+			for (int n = impact.nextSetBit(0); n >= 0; n = impact.nextSetBit(n + 1))
+				impactNodes[chain_idx][i++] = n;
+		}
+
+		node2weights = new long[cost.node2cell.length];
+		for (int i = 0; i < node2weights.length; i++)
+			node2weights[i] = weighted ? Math.round(cost.node2cellWeight[i] * SCALE) : Math.round(SCALE);
+
+		clocking = new int[chains];
+		Arrays.fill(clocking, -1);
+		active = new int[clocks][nodes];
+		cellCost = new long[clocks][cost.cellCount()];
+		maxValid = true;
+		if (maxTree) {
+			treeSize = Integer.highestOneBit(Math.max(1, cost.cellCount() - 1)) << 1;
+			this.maxTree = new int[clocks][2 * treeSize];
+			buildMaxTrees();
+		}
+	}
+
+	/**
+	 * resets the state to the given clocking and clears the undo history. Chains with a clock outside
+	 * of 0..clocks-1 are not assigned to any clock.
+	 */
+	public void setClocking(int[] clocking) {
+		for (int c = 0; c < clocks; c++) {
+			Arrays.fill(active[c], 0);
+			Arrays.fill(cellCost[c], 0L);
+		}
+		Arrays.fill(this.clocking, -1);
+		maxCost = 0;
+		maxValid = false;
+		if (maxTree != null)
+			buildMaxTrees();
+		for (int chain_idx = 0; chain_idx < clocking.length; chain_idx++)
+			assign(chain_idx, clocking[chain_idx]);
+		undoSize = 0;
+	}
+
+	/**
+	 * like moveChain, but without undo record. The undo history is cleared, so long walks of moves
+	 * need no memory.
+	 */
+	public void applyMove(int chain_idx, int newClock) {
+		undoSize = 0;
+		assign(chain_idx, newClock);
+	}
+
+	/**
+	 * moves a chain to the given clock. A clock of -1 removes the chain from all clocks.
+	 */
+	public void moveChain(int chain_idx, int newClock) {
+		if (undoSize == undoChain.length)
+			growUndo();
+		undoChain[undoSize] = chain_idx;
+		undoClock[undoSize] = clocking[chain_idx];
+		undoMaxCost[undoSize] = maxCost;
+		undoMaxClock[undoSize] = maxClock;
+		undoMaxCell[undoSize] = maxCell;
+		undoMaxValid[undoSize] = maxValid;
+		undoSize++;
+		assign(chain_idx, newClock);
+	}
+
+	/**
+	 * reverts the last moveChain.
+	 */
+	public void undo() {
+		if (undoSize == 0)
+			throw new IllegalStateException("nothing to undo");
+		undoSize--;
+		assign(undoChain[undoSize], undoClock[undoSize]);
+		maxCost = undoMaxCost[undoSize];
+		maxClock = undoMaxClock[undoSize];
+		maxCell = undoMaxCell[undoSize];
+		maxValid = undoMaxValid[undoSize];
+	}
+
+	/**
+	 * @return the maximum cost over all clocks and scan cells of the current clocking.
+	 */
+	public float currentMax() {
+		if (!maxValid)
+			updateMax();
+		return (float) (maxCost / SCALE);
+	}
+
+	public int getLastWorstClockIdx() {
+		if (!maxValid)
+			updateMax();
+		return maxClock;
+	}
+
+	public int getLastWorstChainIdx() {
+		if (!maxValid)
+			updateMax();
+		return cost.cell2chain[maxCell];
+	}
+
+	public int clockOf(int chain_idx) {
+		return clocking[chain_idx];
+	}
+
+	public int[] getClocking() {
+		return Arrays.copyOf(clocking, clocking.length);
+	}
+
+	private void assign(int chain_idx, int newClock) {
+		int oldClock = clocking[chain_idx];
+		if (newClock < 0 || newClock >= clocks)
+			newClock = -1;
+		if (oldClock == newClock)
+			return;
+		int[] nodes = impactNodes[chain_idx];
+		int[] start = cost.node2cellStart;
+		int[] cells = cost.node2cell;
+		if (oldClock >= 0) {
+			int[] act = active[oldClock];
+			long[] costs = cellCost[oldClock];
+			for (int n : nodes) {
+				if (--act[n] > 0)
+					continue;
+				for (int i = start[n]; i < start[n + 1]; i++) {
+					costs[cells[i]] -= node2weights[i];
+					if (maxTree != null)
+						updateMaxTree(oldClock, cells[i]);
+				}
+			}
+			if (maxValid && oldClock == maxClock)
+				maxValid = false;
+		}
+		if (newClock >= 0) {
+			int[] act = active[newClock];
+			long[] costs = cellCost[newClock];
+			for (int n : nodes) {
+				if (act[n]++ > 0)
+					continue;
+				for (int i = start[n]; i < start[n + 1]; i++) {
+					long c = (costs[cells[i]] += node2weights[i]);
+					if (maxTree != null)
+						updateMaxTree(newClock, cells[i]);
+					if (maxValid && c > maxCost) {
+						maxCost = c;
+						maxClock = newClock;
+						maxCell = cells[i];
+					}
+				}
+			}
+		}
+		clocking[chain_idx] = newClock;
+	}
+
+	private void updateMax() {
+		maxCost = 0;
+		maxClock = 0;
+		maxCell = 0;
+		if (maxTree != null) {
+			for (int c = 0; c < clocks; c++) {
+				int cell = maxTree[c][1];
+				if (cell >= 0 && cellCost[c][cell] > maxCost) {
+					maxCost = cellCost[c][cell];
+					maxClock = c;
+					maxCell = cell;
+				}
+			}
+			maxValid = true;
+			return;
+		}
+		for (int c = 0; c < clocks; c++) {
+			long[] costs = cellCost[c];
+			for (int cell = 0; cell < costs.length; cell++) {
+				if (costs[cell] > maxCost) {
+					maxCost = costs[cell];
+					maxClock = c;
+					maxCell = cell;
+				}
+			}
+		}
+		maxValid = true;
+	}
+
+	private void buildMaxTrees() {
+		int cells = cost.cellCount();
+		for (int c = 0; c < clocks; c++) {
+			int[] tree = maxTree[c];
+			for (int i = 0; i < treeSize; i++)
+				tree[treeSize + i] = i < cells ? i : -1;
+			for (int i = treeSize - 1; i >= 1; i--)
+				tree[i] = worse(cellCost[c], tree[2 * i], tree[2 * i + 1]);
+		}
+	}
+
+	private void updateMaxTree(int clock, int cell) {
+		int[] tree = maxTree[clock];
+		long[] costs = cellCost[clock];
+		for (int i = (treeSize + cell) >>> 1; i >= 1; i >>>= 1)
+			tree[i] = worse(costs, tree[2 * i], tree[2 * i + 1]);
+	}
+
+	// on ties the lower scan cell index wins, like in the scan of updateMax.
+	private static int worse(long[] costs, int left, int right) {
+		if (right < 0)
+			return left;
+		if (left < 0)
+			return right;
+		return costs[right] > costs[left] ? right : left;
+	}
+
+	private void growUndo() {
+		int size = undoChain.length * 2;
+		undoChain = Arrays.copyOf(undoChain, size);
+		undoClock = Arrays.copyOf(undoClock, size);
+		undoMaxCost = Arrays.copyOf(undoMaxCost, size);
+		undoMaxClock = Arrays.copyOf(undoMaxClock, size);
+		undoMaxCell = Arrays.copyOf(undoMaxCell, size);
+		undoMaxValid = Arrays.copyOf(undoMaxValid, size);
+	}
+}
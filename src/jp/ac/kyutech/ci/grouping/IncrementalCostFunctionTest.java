@@ -0,0 +1,99 @@
+package jp.ac.kyutech.ci.grouping;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+import org.kyupi.circuit.Cell;
+import org.kyupi.circuit.CircuitTools;
+import org.kyupi.circuit.LevelizedCircuit;
+
+public class IncrementalCostFunctionTest {
+
+	private static final String[] NAMES = { "a", "b", "c", "d", "p", "q", "r", "s", "t" };
+
+	private FastCostFunction randomCost(Random r, int chains, int cells) {
+		LevelizedCircuit circuit = CircuitTools.parseBench("INPUT(a) INPUT(b) INPUT(c) INPUT(d) OUTPUT(z) "
+				+ "p=AND(a,b) q=OR(b,c) r=NAND(c,d) s=NOR(p,q) t=AND(r,s) z=OR(t,a)").levelized();
+		Cell[] nodes = new Cell[NAMES.length];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = circuit.searchCellByName(NAMES[i]);
+
+		BitSet[] impacts = new BitSet[chains];
+		int[][][] aregions = new int[chains][cells][];
+		float[][][] aweights = new float[chains][cells][];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++) {
+			impacts[chain_idx] = new BitSet();
+			for (int n = 0; n < nodes.length; n++)
+				if (r.nextInt(3) == 0)
+					impacts[chain_idx].set(n);
+			for (int cell_idx = 0; cell_idx < cells; cell_idx++) {
+				int size = 0;
+				int[] region = new int[nodes.length];
+				for (int n = 0; n < nodes.length; n++)
+					if (r.nextBoolean())
+						region[size++] = n;
+				aregions[chain_idx][cell_idx] = Arrays.copyOf(region, size);
+				aweights[chain_idx][cell_idx] = new float[size];
+				for (int agg_idx = 0; agg_idx < size; agg_idx++)
+					aweights[chain_idx][cell_idx][agg_idx] = 0.1f + 3 * r.nextFloat();
+			}
+		}
+		return new FastCostFunction(new CostModel(nodes, impacts, aregions, aweights));
+	}
+
+	private void runMoves(boolean maxTree) {
+		Random r = new Random(7);
+		int chains = 6;
+		int clocks = 3;
+		FastCostFunction cost = randomCost(r, chains, 4);
+		IncrementalCostFunction inc = new IncrementalCostFunction(cost, clocks, true, maxTree);
+
+		int[] clocking = new int[chains];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++)
+			clocking[chain_idx] = r.nextInt(clocks);
+		inc.setClocking(clocking);
+		assertEquals(cost.evaluate_float(clocking, clocks), inc.currentMax(), 1e-4);
+
+		for (int step = 0; step < 500; step++) {
+			int chain_idx = r.nextInt(chains);
+			int clock = r.nextInt(clocks + 1) - 1;
+			switch (r.nextInt(3)) {
+			case 0:
+				inc.applyMove(chain_idx, clock);
+				clocking[chain_idx] = clock;
+				break;
+			case 1:
+				inc.moveChain(chain_idx, clock);
+				int[] moved = inc.getClocking();
+				assertEquals(clock, moved[chain_idx]);
+				assertEquals(cost.evaluate_float(moved, clocks), inc.currentMax(), 1e-4);
+				inc.undo();
+				break;
+			default:
+				int other = r.nextInt(chains);
+				inc.moveChain(chain_idx, clock);
+				inc.moveChain(other, r.nextInt(clocks));
+				assertEquals(cost.evaluate_float(inc.getClocking(), clocks), inc.currentMax(), 1e-4);
+				inc.undo();
+				inc.undo();
+			}
+			assertEquals(Arrays.toString(clocking), Arrays.toString(inc.getClocking()));
+			assertEquals(cost.evaluate_float(clocking, clocks), inc.currentMax(), 1e-4);
+		}
+	}
+
+	@Test
+	public void testMoves() {
+		runMoves(false);
+	}
+
+	@Test
+	public void testMovesMaxTree() {
+		runMoves(true);
+	}
+
+}
@@ -18,13 +18,20 @@ import org.kyupi.sim.BBPlainSim;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.*;
-import java.util.function.Predicate;
-
-import static java.lang.Math.toIntExact;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class Main extends KyupiApp {
 
@@ -45,14 +52,26 @@ public class Main extends KyupiApp {
 		options.addOption("clk", true, "number of staggered clocks/groups");
 		options.addOption("arx", true, "horizontal size of aggressor regions in units of NAND2X1 widths");
 		options.addOption("ary", true, "vertical size of aggressor regions in units of rows");
-		options.addOption("prt_method", true, "partitioning method: seq, random, s1, z1, ... (default seq)");
-		options.addOption("prt_start", true, "start partition index (seq) or start seed (random) (default 0)");
-		options.addOption("prt_cases", true, "number of partitions to evaluate (for seq, random only) (default 1)");
+		options.addOption("prt_method", true, "partitioning method: seq, random, sample, s1, z1, ..., ex, gray, bb (default seq)");
+		options.addOption("prt_start", true, "start partition index (seq), start line (file) or start seed (random, sample) (default 0)");
+		options.addOption("prt_cases", true, "number of partitions to evaluate (for seq, random, sample, file only) (default 1)");
+		options.addOption("prt_batch", false, "evaluate all clockings of a file given as prt_method in parallel and keep the best");
+		options.addOption("bb_nodes", true, "stop branch and bound after given number of search nodes with the best clocking so far (default unlimited)");
+		options.addOption("prt_topk", true, "number of best clockings kept and logged (for sample, ex, gray, file batch only) (default 10)");
+		options.addOption("cache", true, "cache impact sets, aggressor sets and pair costs in given directory");
 		options.addOption("ir_drop", true, "read max ir-drop list and output the flip-flop with max ir-drop and the the value of ir-drop");
+		options.addOption("ir_weight", true, "scale aggressor weights of each flip-flop by 1 + given factor * ir-drop / max ir-drop (needs ir_drop)");
 
 		// specific operations to perform
 		options.addOption("sep_clk", true, "safe a new design with separate chain clocks to given file and exit");
 		options.addOption("sim", true, "evaluate by WSA sim with given number of blocks (1 block = 32 shift cycles)");
+		options.addOption("sweep", true,
+				"evaluate a grid of configurations on the loaded design, e.g. \"clk=2,4;arx=100,300;ary=2;prt_method=s2,bb\", and exit");
+		options.addOption("sweep_out", true, "write the sweep results table to given file (default stdout)");
+		options.addOption("sweep_threads", true,
+				"number of concurrently evaluated sweep configurations or server requests (default: processors)");
+		options.addOption("serve", true,
+				"keep the design loaded and serve requests from stdin (\"stdin\") or on the given local port");
 
 		// output control parameters
 		options.addOption("table", true, "output a data table for latex into given file");
@@ -102,46 +121,10 @@ public class Main extends KyupiApp {
 		cbinfo = collectClockBuffers(circuit, chains);
 
 
-		log.info("Calculating impact sets...");
-		HashMap<ScanChain, HashSet<Cell>> chain2impactSet = new HashMap<>();
-		calculateImpactSets(chains, cbinfo, chain2impactSet);
-
+		IRDropReport irDrop = null;
 		if (argsParsed().hasOption("ir_drop")) {
-			int[] dropffcount = new int[101];
-			String filename = argsParsed().getOptionValue("ir_drop");
-			FileReader fr = new FileReader(filename);
-			log.info("Loading ir-droplist " + filename);
-			BufferedReader br = new BufferedReader(fr);
-			String line = null;
-			float max = 0;
-			float avg = 0;
-			int ffcount = 0;
-			int maxIRdropLine = 0;
-			int linecount = 0;
-			while ((line = br.readLine()) != null){
-				linecount++;
-				if (line.contains("reg")) {
-					int percentage;
-
-					String keywords[] = line.split(" ");
-					if ((1.2 - Float.parseFloat(keywords[3])) > max) {
-						max = (float) (1.2 - Float.parseFloat(keywords[3]));
-						maxIRdropLine = linecount;
-					}
-					ffcount++;
-					avg += 1.2 - Float.parseFloat(keywords[3]);
-					//System.out.println(keywords[5] + " " + keywords[3]);
-					percentage = toIntExact(Math.round(((1.2 - Float.parseFloat(keywords[3]))/3.096)*100));
-					dropffcount[percentage]++;
-
-				}
-			}
-			avg /= ffcount;
-			for (int per = 1; per <= 100; per++){
-				System.out.println(per + " " +dropffcount[per]);
-			}
-			log.info("MaxIRdropOnFF " + max + " lineNum " + maxIRdropLine);
-			log.info("AvgIRdropOnFFs " + avg);
+			irDrop = new IRDropReport(new File(argsParsed().getOptionValue("ir_drop")), chains);
+			irDrop.printStatistics(System.out);
 		}
 
 		// load placement
@@ -155,6 +138,20 @@ public class Main extends KyupiApp {
 			});
 		}
 
+		// server operation. Exits here when the server is shut down.
+		if (argsParsed().hasOption("serve")) {
+			serve(chains, cbinfo, placement, irDrop);
+			printGoodbye();
+			return null;
+		}
+
+		// sweep operation. Exits here if executed.
+		if (argsParsed().hasOption("sweep")) {
+			sweep(chains, cbinfo, placement, irDrop);
+			printGoodbye();
+			return null;
+		}
+
 		// read aggressor region size parameters
 		double arx = doubleFromArgsOrDefault("arx", 300);
 		double ary = doubleFromArgsOrDefault("ary", 2);
@@ -163,10 +160,26 @@ public class Main extends KyupiApp {
 		log.info("AggressorRegionSize X " + arx + "  Y " + ary);
 		log.info("AggressorRegionSizeNM X " + arxnm + "  Y " + arynm);
 
-		log.info("Calculating aggressor sets...");
+		AnalysisCache cache = openCacheFromArgs(arx, ary);
+		HashMap<ScanChain, HashSet<Cell>> chain2impactSet = new HashMap<>();
 		HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet = new HashMap<>();
 		HashMap<ScanChain, HashSet<Cell>> chain2aggressorSet = new HashMap<>();
-		calculateAggressorSets(chains, placement, arxnm, arynm, cell2aggressorSet, chain2aggressorSet);
+		if (cache != null && cache.loadSets(chains, chain2impactSet, cell2aggressorSet)) {
+			for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
+				ScanChain chain = chains.get(chainIdx);
+				HashSet<Cell> chainaggressors = new HashSet<>();
+				for (ScanCell cell : chain.cells)
+					chainaggressors.addAll(cell2aggressorSet.get(cell));
+				chain2aggressorSet.put(chain, chainaggressors);
+			}
+		} else {
+			log.info("Calculating impact sets...");
+			calculateImpactSets(chains, cbinfo, chain2impactSet);
+			log.info("Calculating aggressor sets...");
+			calculateAggressorSets(chains, placement, arxnm, arynm, cell2aggressorSet, chain2aggressorSet);
+			if (cache != null)
+				cache.saveSets(chains, chain2impactSet, cell2aggressorSet);
+		}
 		printAggressorAndImpactStatistics(chains, cell2aggressorSet, chain2aggressorSet, chain2impactSet);
 
 		int maxAggressors = 0;
@@ -176,10 +189,13 @@ public class Main extends KyupiApp {
 		}
 		log.info("MaxAggressors " + maxAggressors);
 
+		float[][] cellWeights = cellWeightsFromArgs(irDrop);
+		CostModel costModel = new CostModel(chain2impactSet, cell2aggressorSet, ROW_HEIGHT, placement, cellWeights);
+		log.info("CostModel initialized.");
+
 		log.info("Calculating self aggressor sets...");
-		HashMap<ScanCell, HashSet<Cell>> cell2selfAggressorSet = calculateSelfAggressors(chains, cell2aggressorSet,
-				chain2impactSet);
-		int maxSelfAggressors = printSizeHistogram(cell2selfAggressorSet, cell2aggressorSet);
+		int[][] selfAggressorCounts = new FastCostFunction(costModel).selfAggressorCounts();
+		int maxSelfAggressors = printSizeHistogram(chains, selfAggressorCounts, cell2aggressorSet);
 		log.info("  MaxSelfAggressors " + maxSelfAggressors);
 
 		// read partitioning parameters
@@ -195,34 +211,23 @@ public class Main extends KyupiApp {
 		if (prt_method.startsWith("se")) {
 			log.info("PartitionMethod Sequential");
 			log.info("PartitionStart " + prt_start);
-			partGen = new PartitionGeneratorSeq(chains.size(), clocks);
-			for (int i = 0; i < prt_start; i++) {
-				if (partGen.hasNext()) {
-					partGen.next();
-				} else {
-					log.error("prt_start out of bounds, starting over.");
-					partGen.iterator();
-				}
+			PartitionGeneratorSeq partGenSeq = new PartitionGeneratorSeq(chains.size(), clocks);
+			BigInteger start = BigInteger.valueOf(prt_start);
+			if (start.compareTo(partGenSeq.count()) >= 0) {
+				log.error("prt_start out of bounds, starting over.");
+				start = start.mod(partGenSeq.count());
 			}
+			partGenSeq.seek(start);
+			partGen = partGenSeq;
 		} else if (prt_method.startsWith("r")) {
 			log.info("PartitionMethod Random");
 			log.info("PartitionStart " + prt_start);
 			partGen = new PartitionGeneratorRandom(chains.size(), clocks, prt_start);
-		} else if (prt_method.startsWith("s1")) {
-			log.info("PartitionMethod S1");
-			partAlg = new ScanChainGrouperAlgS1();
-		} else if (prt_method.startsWith("s2")) {
-			log.info("PartitionMethod S2");
-			partAlg = new ScanChainGrouperAlgS2();
-		} else if (prt_method.startsWith("z1")) {
-			log.info("PartitionMethod Z1");
-			partAlg = new ScanChainGrouperAlgZ1();
-		}else if (prt_method.startsWith("z2")){
-			log.info("PartitionMethod Z2");
-			partAlg = new ScanChainGrouperAlgZ2();
-		} else if (prt_method.startsWith("z3")) {
-			log.info("PartitionMethod Z3(S2 + cost in float)");
-			partAlg = new ScanChainGrouperAlgZ3();
+		} else if ((partAlg = newGrouper(prt_method, prt_start, prt_cases)) != null) {
+			if (partAlg instanceof ScanChainGrouperSample) {
+				prt_start = 0;
+				prt_cases = 1;
+			}
 		}else {
 			File f = new File(prt_method);
 			if (!f.canRead()) {
@@ -232,17 +237,34 @@ public class Main extends KyupiApp {
 				return null;
 			}
 			PartitionGeneratorFile partGenFile = new PartitionGeneratorFile(f);
+			if (partGenFile.size() == 0) {
+				log.error("No Clocking lines in file: " + prt_method);
+				printGoodbye();
+				return null;
+			}
 			clocks = partGenFile.clocks();
-			partGen = partGenFile;
+			if (argsParsed().hasOption("prt_batch")) {
+				log.info("PartitionMethod File (batch)");
+				ScanChainGrouperFile batch = new ScanChainGrouperFile(partGenFile);
+				batch.setTopK(intFromArgsOrDefault("prt_topk", 10));
+				partAlg = batch;
+			} else {
+				log.info("PartitionMethod File");
+				log.info("PartitionStart " + prt_start);
+				if (prt_start >= partGenFile.size()) {
+					log.error("prt_start out of bounds, starting over.");
+					prt_start = prt_start % partGenFile.size();
+				}
+				partGen = partGenFile.generatorAt(prt_start);
+			}
 		}
 
 		// set algorithm parameters, if an algorithm is selected
 		if (partAlg != null) {
-			partAlg.setRowHeight(ROW_HEIGHT);
-			partAlg.setPlacement(placement);
-			partAlg.setChains(chains);
-			partAlg.setCell2aggressorSet(cell2aggressorSet);
-			partAlg.setChain2impactSet(chain2impactSet);
+			setUpGrouper(partAlg, chains, placement, cell2aggressorSet, chain2impactSet, costModel);
+			// pair costs are cached without ir-drop weights.
+			if (cache != null && cellWeights == null)
+				partAlg.setPairCostTable(cache.loadPairCosts(chains.size()));
 			if (prt_cases > 1)
 				log.warn("prt_cases is ignored. Only a single partitioning is evaluated.");
 			if (prt_start > 0)
@@ -258,8 +280,11 @@ public class Main extends KyupiApp {
 			int clocking[];
 			if (partAlg != null) {
 				log.info("ScanChainGrouping start...");
+				boolean pairCostsCached = partAlg.hasPairCostTable();
 				clocking = partAlg.calculateClocking(clocks);
 				log.info("ScanChainGrouping finished.");
+				if (cache != null && cellWeights == null && !pairCostsCached && partAlg.hasPairCostTable())
+					cache.savePairCosts(partAlg.getPairCostTable());
 			} else {
 				if (!partGen.hasNext()) {
 					log.error("prt_start+case_idx out of bounds, starting over.");
@@ -269,12 +294,10 @@ public class Main extends KyupiApp {
 			}
 			log.info("Calculating active aggressor sets...");
 
-			HashMap<ScanCell, HashSet<Cell>> cell2activeAggressorSet = calculateMaxActiveAggressors(chains, clocking,
-					cell2aggressorSet, chain2impactSet);
-
 			Util util = new Util();
-			FastCostFunction cost = new FastCostFunction(chain2impactSet, cell2aggressorSet, ROW_HEIGHT, placement);
-			int maxActiveAggressors = printSizeHistogram(cell2activeAggressorSet, cell2aggressorSet);
+			FastCostFunction cost = new FastCostFunction(costModel);
+			int[][] activeAggressorCounts = cost.activeAggressorCounts(clocking, ArrayTools.max(clocking) + 1);
+			int maxActiveAggressors = printSizeHistogram(chains, activeAggressorCounts, cell2aggressorSet);
 			log.info("  MaxActiveAggressors " + maxActiveAggressors);
 			log.info(" CostAfterGrouping " + String.format("%.2f", cost.evaluate_float(clocking, clocks)));
 			maxOverlap[case_idx] = maxActiveAggressors;
@@ -310,22 +333,7 @@ public class Main extends KyupiApp {
 					log.warn("only one gp correlation plot file will be generated!");
 			}
 
-			log.info("WSA Simulation Setup...");
-			QBSource shifts = prepareExpandedRandomPatterns(chains, clocking);
-			QBWeightedSwitchingActivitySim sim = new QBWeightedSwitchingActivitySim(circuit, shifts);
-			HashMap<ScanCell, WeightedNodeSet> aggressor_wns = new HashMap<>();
-			for (ScanCell sc : cell2aggressorSet.keySet()) {
-				WeightedNodeSet wns = sim.new WeightedNodeSet();
-				for (Cell n : cell2aggressorSet.get(sc)) {
-					wns.add(n, n.outputCount());
-				}
-				aggressor_wns.put(sc, wns);
-			}
-			log.info("WSA Simulation Start...");
-			for (int i = 0; i < blocks; i++) {
-				sim.next();
-			}
-			log.info("WSA Simulation Finished.");
+			HashMap<ScanCell, WeightedNodeSet> aggressor_wns = simulateWsa(chains, clocking, blocks, cell2aggressorSet);
 
 			double overallActivityMax = 0.0;
 			for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
@@ -334,7 +342,8 @@ public class Main extends KyupiApp {
 				// int clock_phase = clocking[chainIdx];
 				log.info("Chain " + chainIdx + " ScanInPort " + chain.in.node.name());
 				double chainActivityMax = 0.0;
-				for (ScanCell cell : chain.cells) {
+				for (int cellIdx = 0; cellIdx < chain.cells.size(); cellIdx++) {
+					ScanCell cell = chain.cells.get(cellIdx);
 					WeightedNodeSet wns = aggressor_wns.get(cell);
 					double activityMax = wns.getMaxActivity();
 					double activityAvg = wns.getAverageActivity();
@@ -346,7 +355,7 @@ public class Main extends KyupiApp {
 					// }
 					// }
 					if (gp_correlation != null) {
-						gp_correlation.println("" + cell2activeAggressorSet.get(cell).size() + " " + activityMax);
+						gp_correlation.println("" + activeAggressorCounts[chainIdx][cellIdx] + " " + activityMax);
 					//	gp_correlation.println("" + cost.evaluate_weighted(cell2activeAggressorSet.get(cell)) + " " +
 					//			activityMax);
 					}
@@ -385,6 +394,551 @@ public class Main extends KyupiApp {
 		return null;
 	}
 
+	/**
+	 * @return a new grouping algorithm for the given method, or null if the method is no algorithm.
+	 */
+	private ScanChainGrouper newGrouper(String prt_method, long prt_start, long prt_cases) {
+		if (prt_method.startsWith("sa")) {
+			log.info("PartitionMethod Sample");
+			ScanChainGrouperSample sample = new ScanChainGrouperSample();
+			sample.setSeed(prt_start);
+			sample.setCases(prt_cases);
+			sample.setTopK(intFromArgsOrDefault("prt_topk", 10));
+			return sample;
+		} else if (prt_method.startsWith("s1")) {
+			log.info("PartitionMethod S1");
+			return new ScanChainGrouperAlgS1();
+		} else if (prt_method.startsWith("s2")) {
+			log.info("PartitionMethod S2");
+			return new ScanChainGrouperAlgS2();
+		} else if (prt_method.startsWith("z1")) {
+			log.info("PartitionMethod Z1");
+			return new ScanChainGrouperAlgZ1();
+		} else if (prt_method.startsWith("z2")) {
+			log.info("PartitionMethod Z2");
+			return new ScanChainGrouperAlgZ2();
+		} else if (prt_method.startsWith("z3")) {
+			log.info("PartitionMethod Z3(S2 + cost in float)");
+			return new ScanChainGrouperAlgZ3();
+		} else if (prt_method.startsWith("ex")) {
+			log.info("PartitionMethod Exhaustive");
+			ScanChainGrouperExhaustive exhaustive = new ScanChainGrouperExhaustive();
+			exhaustive.setTopK(intFromArgsOrDefault("prt_topk", 10));
+			return exhaustive;
+		} else if (prt_method.startsWith("gr")) {
+			log.info("PartitionMethod Exhaustive (gray code)");
+			ScanChainGrouperExhaustive exhaustive = new ScanChainGrouperExhaustive();
+			exhaustive.setGrayCode(true);
+			exhaustive.setTopK(intFromArgsOrDefault("prt_topk", 10));
+			return exhaustive;
+		} else if (prt_method.startsWith("bb")) {
+			log.info("PartitionMethod BranchAndBound");
+			ScanChainGrouperBranchAndBound bb = new ScanChainGrouperBranchAndBound();
+			bb.setNodeLimit(longFromArgsOrDefault("bb_nodes", Long.MAX_VALUE));
+			return bb;
+		}
+		return null;
+	}
+
+	private void setUpGrouper(ScanChainGrouper partAlg, ScanChains chains, Placement placement,
+			HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, HashMap<ScanChain, HashSet<Cell>> chain2impactSet,
+			CostModel costModel) {
+		partAlg.setRowHeight(ROW_HEIGHT);
+		partAlg.setPlacement(placement);
+		partAlg.setChains(chains);
+		partAlg.setCell2aggressorSet(cell2aggressorSet);
+		partAlg.setChain2impactSet(chain2impactSet);
+		partAlg.setCostModel(costModel);
+	}
+
+	/**
+	 * @return the ir-drop cell weights selected by -ir_weight, or null.
+	 */
+	private float[][] cellWeightsFromArgs(IRDropReport irDrop) {
+		if (!argsParsed().hasOption("ir_weight"))
+			return null;
+		if (irDrop == null) {
+			log.warn("ir_weight needs an ir_drop report, weighting disabled.");
+			return null;
+		}
+		float alpha = (float) doubleFromArgsOrDefault("ir_weight", 1);
+		log.info("IRDropWeight " + alpha);
+		return irDrop.weights(alpha);
+	}
+
+	/**
+	 * Shared data of all sweep configurations with the same aggressor region size.
+	 */
+	private static class SweepModel {
+		final HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet;
+		final CostModel costModel;
+		private PairCostTable pairCostTable;
+
+		SweepModel(HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, CostModel costModel) {
+			this.cell2aggressorSet = cell2aggressorSet;
+			this.costModel = costModel;
+		}
+
+		synchronized PairCostTable pairCostTable() {
+			if (pairCostTable == null)
+				pairCostTable = new PairCostTable(new FastCostFunction(costModel), true);
+			return pairCostTable;
+		}
+	}
+
+	/**
+	 * @return aggressor sets and cost model for regions of arx x ary, taken from the given lists.
+	 */
+	private SweepModel newSweepModel(ScanChains chains, AggressorLists lists,
+			HashMap<ScanChain, HashSet<Cell>> chain2impactSet, Placement placement, float[][] cellWeights, double arx,
+			double ary) {
+		int arxnm = (int) (arx * NAND_WIDTH);
+		int arynm = (int) (ary * ROW_HEIGHT);
+		log.info("Calculating aggressor sets for AggressorRegionSize X " + arx + "  Y " + ary + "...");
+		HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet = new HashMap<>();
+		calculateAggressorSets(chains, lists, arxnm, arynm, cell2aggressorSet, new HashMap<ScanChain, HashSet<Cell>>());
+		return new SweepModel(cell2aggressorSet,
+				new CostModel(chain2impactSet, cell2aggressorSet, ROW_HEIGHT, placement, cellWeights));
+	}
+
+	/**
+	 * evaluates all configurations of the -sweep grid on the loaded design. Impact sets and aggressor
+	 * lists of the largest region are computed once, aggressor sets, cost model and pair costs once per
+	 * aggressor region size. The
+	 * configurations run concurrently, and the results are written as one table with a row per
+	 * configuration in grid order.
+	 */
+	private void sweep(ScanChains chains, CBInfo cbinfo, Placement placement, IRDropReport irDrop) throws Exception {
+		SweepGrid grid = new SweepGrid(argsParsed().getOptionValue("sweep"), "clk", "arx", "ary", "prt_method");
+		HashMap<String, String> defaults = new HashMap<>();
+		defaults.put("clk", "" + intFromArgsOrDefault("clk", 1));
+		defaults.put("arx", "" + doubleFromArgsOrDefault("arx", 300));
+		defaults.put("ary", "" + doubleFromArgsOrDefault("ary", 2));
+		defaults.put("prt_method", stringFromArgsOrDefault("prt_method", "seq"));
+		List<SweepGrid.Configuration> configs = grid.configurations(defaults);
+		log.info("SweepConfigurations " + configs.size());
+		for (SweepGrid.Configuration config : configs) {
+			String prt_method = config.get("prt_method").toLowerCase();
+			if (!prt_method.startsWith("se") && !prt_method.startsWith("r")
+					&& newGrouper(prt_method, 0, 1) == null)
+				throw new IllegalArgumentException("unknown partitioning method for sweep: " + prt_method);
+		}
+		long prt_start = longFromArgsOrDefault("prt_start", 0);
+		long prt_cases = sweepCasesFromArgs();
+
+		log.info("Calculating impact sets...");
+		HashMap<ScanChain, HashSet<Cell>> chain2impactSet = new HashMap<>();
+		calculateImpactSets(chains, cbinfo, chain2impactSet);
+		float[][] cellWeights = cellWeightsFromArgs(irDrop);
+
+		// one geometry pass for the largest region, smaller regions are views of its lists.
+		int maxArxnm = 0;
+		int maxArynm = 0;
+		for (SweepGrid.Configuration config : configs) {
+			maxArxnm = Math.max(maxArxnm, (int) (config.getDouble("arx") * NAND_WIDTH));
+			maxArynm = Math.max(maxArynm, (int) (config.getDouble("ary") * ROW_HEIGHT));
+		}
+		AggressorLists aggressorLists = newAggressorLists(chains, placement, maxArxnm, maxArynm);
+
+		HashMap<String, SweepModel> models = new HashMap<>();
+		for (SweepGrid.Configuration config : configs) {
+			String key = config.get("arx") + " " + config.get("ary");
+			if (models.containsKey(key))
+				continue;
+			models.put(key, newSweepModel(chains, aggressorLists, chain2impactSet, placement, cellWeights,
+					config.getDouble("arx"), config.getDouble("ary")));
+		}
+
+		int threads = intFromArgsOrDefault("sweep_threads", Runtime.getRuntime().availableProcessors());
+		log.info("SweepThreads " + threads);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		PrintStream out = argsParsed().hasOption("sweep_out")
+				? new PrintStream(new FileOutputStream(argsParsed().getOptionValue("sweep_out")))
+				: System.out;
+		try {
+			List<Future<String>> rows = new ArrayList<>();
+			for (SweepGrid.Configuration config : configs) {
+				SweepModel model = models.get(config.get("arx") + " " + config.get("ary"));
+				rows.add(pool.submit(
+						() -> sweepRow(config, chains, placement, chain2impactSet, model, prt_start, prt_cases)));
+			}
+			out.println(grid.header() + "\tcost\tmax_active_aggressors\tcases\ttime_ms\tclocking");
+			for (Future<String> row : rows)
+				out.println(row.get());
+		} finally {
+			pool.shutdown();
+			if (out != System.out)
+				out.close();
+		}
+	}
+
+	/**
+	 * @return -prt_cases for sweep rows, which need at least one case to report a clocking.
+	 */
+	private long sweepCasesFromArgs() {
+		long prt_cases = longFromArgsOrDefault("prt_cases", 1);
+		if (prt_cases < 1)
+			throw new IllegalArgumentException("prt_cases must be at least 1, got " + prt_cases);
+		return prt_cases;
+	}
+
+	/**
+	 * evaluates a single sweep configuration. Partition generators evaluate prt_cases cases from
+	 * prt_start and keep the best.
+	 *
+	 * @return the table row of the configuration.
+	 */
+	private String sweepRow(SweepGrid.Configuration config, ScanChains chains, Placement placement,
+			HashMap<ScanChain, HashSet<Cell>> chain2impactSet, SweepModel model, long prt_start, long prt_cases) {
+		long start = System.nanoTime();
+		int clocks = Math.min(config.getInt("clk"), chains.size());
+		String prt_method = config.get("prt_method").toLowerCase();
+		FastCostFunction cost = new FastCostFunction(model.costModel);
+		int[] clocking;
+		long cases = 1;
+		ScanChainGrouper partAlg = newGrouper(prt_method, prt_start, prt_cases);
+		if (partAlg != null) {
+			setUpGrouper(partAlg, chains, placement, model.cell2aggressorSet, chain2impactSet, model.costModel);
+			partAlg.setPairCostTable(model.pairCostTable());
+			clocking = partAlg.calculateClocking(clocks);
+			if (partAlg instanceof ScanChainGrouperSample)
+				cases = prt_cases;
+		} else {
+			PartitionGenerator partGen;
+			if (prt_method.startsWith("se")) {
+				PartitionGeneratorSeq partGenSeq = new PartitionGeneratorSeq(chains.size(), clocks);
+				partGen = partGenSeq.generatorAt(BigInteger.valueOf(prt_start).mod(partGenSeq.count()).longValue());
+			} else {
+				partGen = new PartitionGeneratorRandom(chains.size(), clocks, prt_start);
+			}
+			clocking = null;
+			float best = Float.MAX_VALUE;
+			for (cases = 0; cases < prt_cases; cases++) {
+				if (!partGen.hasNext())
+					partGen.iterator();
+				int[] c = partGen.next();
+				float f = cost.evaluate_float(c, clocks);
+				if (f < best) {
+					best = f;
+					clocking = c;
+				}
+			}
+		}
+		int maxActiveAggressors = 0;
+		for (int[] counts : cost.activeAggressorCounts(clocking, ArrayTools.max(clocking) + 1))
+			for (int count : counts)
+				maxActiveAggressors = Math.max(maxActiveAggressors, count);
+		float c = cost.evaluate_float(clocking, clocks);
+		long millis = (System.nanoTime() - start) / 1000000;
+		log.info("SweepConfiguration " + config.toString().replace('\t', ' ') + " Cost " + String.format("%.2f", c)
+				+ " Time " + millis + "ms");
+		return config + "\t" + String.format(Locale.ROOT, "%.2f", c) + "\t" + maxActiveAggressors + "\t" + cases
+				+ "\t" + millis + "\t" + Arrays.toString(clocking).replaceAll("[\\[\\],]", "");
+	}
+
+	/**
+	 * serves requests on the loaded design until shutdown, from stdin or from connections to a local
+	 * port. Impact sets and the aggressor lists for the -arx/-ary region are computed once, cost models
+	 * on first use per region size. Requests run concurrently; the responses of a connection are written
+	 * in request order, one line each.
+	 */
+	private void serve(ScanChains chains, CBInfo cbinfo, Placement placement, IRDropReport irDrop) throws Exception {
+		Server server = new Server(chains, cbinfo, placement, irDrop);
+		int threads = intFromArgsOrDefault("sweep_threads", Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			String where = argsParsed().getOptionValue("serve");
+			if (where.equalsIgnoreCase("stdin")) {
+				log.info("Serving on stdin.");
+				server.session(new BufferedReader(new InputStreamReader(System.in)), new PrintWriter(System.out), pool);
+				return;
+			}
+			try (ServerSocket socket = new ServerSocket(Integer.parseInt(where), 50, InetAddress.getLoopbackAddress())) {
+				server.socket = socket;
+				log.info("ServerPort " + socket.getLocalPort());
+				while (!server.shutdown) {
+					Socket connection;
+					try {
+						connection = socket.accept();
+					} catch (SocketException e) {
+						break; // closed by shutdown
+					}
+					Thread t = new Thread(() -> {
+						try (Socket c = connection) {
+							server.session(new BufferedReader(new InputStreamReader(c.getInputStream())),
+									new PrintWriter(new OutputStreamWriter(c.getOutputStream())), pool);
+						} catch (Exception e) {
+							log.warn("Connection failed: " + e);
+						}
+					});
+					t.setDaemon(true);
+					t.start();
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * State of the server mode and its line protocol. Requests are
+	 *
+	 * header, group [name=value ...], eval [name=value ...] clocking, wsa blocks=n [name=value ...]
+	 * clocking, quit and shutdown.
+	 *
+	 * The parameters are those of -sweep (clk, arx, ary, prt_method) and default to the command line.
+	 * group answers with a row in the format of the sweep table. Responses start with "ok" or "error".
+	 */
+	private class Server {
+		private final String[] names = { "clk", "arx", "ary", "prt_method" };
+
+		private final ScanChains chains;
+		private final Placement placement;
+		private final HashMap<ScanChain, HashSet<Cell>> chain2impactSet = new HashMap<>();
+		private final float[][] cellWeights;
+		private final AggressorLists lists;
+		private final int maxArxnm, maxArynm;
+		private final HashMap<String, String> defaults = new HashMap<>();
+		private final long prt_start, prt_cases;
+
+		// most recently used models by region, each completed by the request thread that built it.
+		private static final int MODEL_CACHE_SIZE = 8;
+		private final LinkedHashMap<String, CompletableFuture<SweepModel>> models = new LinkedHashMap<String, CompletableFuture<SweepModel>>(
+				16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<SweepModel>> eldest) {
+				return size() > MODEL_CACHE_SIZE;
+			}
+		};
+
+		volatile boolean shutdown = false;
+		volatile ServerSocket socket;
+
+		Server(ScanChains chains, CBInfo cbinfo, Placement placement, IRDropReport irDrop) throws Exception {
+			this.chains = chains;
+			this.placement = placement;
+			prt_start = longFromArgsOrDefault("prt_start", 0);
+			prt_cases = sweepCasesFromArgs();
+			log.info("Calculating impact sets...");
+			calculateImpactSets(chains, cbinfo, chain2impactSet);
+			cellWeights = cellWeightsFromArgs(irDrop);
+			defaults.put("clk", "" + intFromArgsOrDefault("clk", 1));
+			defaults.put("arx", "" + doubleFromArgsOrDefault("arx", 300));
+			defaults.put("ary", "" + doubleFromArgsOrDefault("ary", 2));
+			defaults.put("prt_method", stringFromArgsOrDefault("prt_method", "seq"));
+			maxArxnm = (int) (Double.parseDouble(defaults.get("arx")) * NAND_WIDTH);
+			maxArynm = (int) (Double.parseDouble(defaults.get("ary")) * ROW_HEIGHT);
+			lists = newAggressorLists(chains, placement, maxArxnm, maxArynm);
+			model(Double.parseDouble(defaults.get("arx")), Double.parseDouble(defaults.get("ary")));
+		}
+
+		/**
+		 * @return the model for the given region, built on first use and kept among the
+		 *         MODEL_CACHE_SIZE most recently used ones. Regions larger than the -arx/-ary region need
+		 *         their own geometry pass. Concurrent requests for the same region wait for one build.
+		 */
+		SweepModel model(double arx, double ary) throws Exception {
+			String key = arx + " " + ary;
+			CompletableFuture<SweepModel> future;
+			boolean build = false;
+			synchronized (models) {
+				future = models.get(key);
+				if (future == null) {
+					future = new CompletableFuture<>();
+					models.put(key, future);
+					build = true;
+				}
+			}
+			if (build) {
+				try {
+					int arxnm = (int) (arx * NAND_WIDTH);
+					int arynm = (int) (ary * ROW_HEIGHT);
+					AggressorLists l = arxnm <= maxArxnm && arynm <= maxArynm ? lists
+							: newAggressorLists(chains, placement, arxnm, arynm);
+					future.complete(newSweepModel(chains, l, chain2impactSet, placement, cellWeights, arx, ary));
+				} catch (RuntimeException | Error e) {
+					synchronized (models) {
+						models.remove(key, future);
+					}
+					future.completeExceptionally(e);
+				}
+			}
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Error)
+					throw (Error) e.getCause();
+				throw (Exception) e.getCause();
+			}
+		}
+
+		void shutdown() throws IOException {
+			shutdown = true;
+			if (socket != null)
+				socket.close();
+		}
+
+		/**
+		 * reads requests until end of input, quit or shutdown and writes the responses in request order.
+		 */
+		void session(BufferedReader in, PrintWriter out, ExecutorService pool) throws Exception {
+			LinkedBlockingQueue<Future<String>> responses = new LinkedBlockingQueue<>();
+			Future<String> end = CompletableFuture.completedFuture(null);
+			Thread writer = new Thread(() -> {
+				try {
+					for (Future<String> f = responses.take(); f != end; f = responses.take()) {
+						String response;
+						try {
+							response = f.get();
+						} catch (ExecutionException e) {
+							response = "error " + e.getCause();
+						}
+						out.println(response);
+						out.flush();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			writer.start();
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					String request = line.trim();
+					if (request.isEmpty())
+						continue;
+					if (request.equals("quit"))
+						break;
+					if (request.equals("shutdown")) {
+						shutdown();
+						break;
+					}
+					responses.add(pool.submit(() -> handle(request)));
+				}
+			} finally {
+				responses.add(end);
+				writer.join();
+			}
+		}
+
+		String handle(String request) throws Exception {
+			String[] tokens = request.split("\\s+");
+			LinkedHashMap<String, String> values = new LinkedHashMap<>();
+			for (String name : names)
+				values.put(name, defaults.get(name));
+			int blocks = 0;
+			ArrayList<Integer> clocking = new ArrayList<>();
+			for (int i = 1; i < tokens.length; i++) {
+				int eq = tokens[i].indexOf('=');
+				if (eq < 0) {
+					clocking.add(Integer.parseInt(tokens[i]));
+					continue;
+				}
+				String name = tokens[i].substring(0, eq);
+				String value = tokens[i].substring(eq + 1);
+				if (name.equals("blocks"))
+					blocks = Integer.parseInt(value);
+				else if (values.containsKey(name))
+					values.put(name, value);
+				else
+					throw new IllegalArgumentException("unknown parameter " + name);
+			}
+			if (tokens[0].equals("header"))
+				return "ok " + String.join("\t", names) + "\tcost\tmax_active_aggressors\tcases\ttime_ms\tclocking";
+			SweepGrid.Configuration config = new SweepGrid.Configuration(values);
+			SweepModel model = model(config.getDouble("arx"), config.getDouble("ary"));
+
+			switch (tokens[0]) {
+			case "group": {
+				String prt_method = config.get("prt_method").toLowerCase();
+				if (!prt_method.startsWith("se") && !prt_method.startsWith("r")
+						&& newGrouper(prt_method, 0, 1) == null)
+					throw new IllegalArgumentException("unknown partitioning method " + prt_method);
+				return "ok " + sweepRow(config, chains, placement, chain2impactSet, model, prt_start, prt_cases);
+			}
+			case "eval": {
+				int[] c = clockingOf(clocking, config.getInt("clk"));
+				FastCostFunction cost = new FastCostFunction(model.costModel);
+				int maxActiveAggressors = 0;
+				for (int[] counts : cost.activeAggressorCounts(c, ArrayTools.max(c) + 1))
+					for (int count : counts)
+						maxActiveAggressors = Math.max(maxActiveAggressors, count);
+				return "ok cost " + String.format(Locale.ROOT, "%.2f", cost.evaluate_float(c, config.getInt("clk")))
+						+ " max_active_aggressors " + maxActiveAggressors;
+			}
+			case "wsa": {
+				if (blocks <= 0)
+					throw new IllegalArgumentException("wsa needs blocks=n");
+				double max = 0.0;
+				for (WeightedNodeSet wns : simulateWsa(chains, clockingOf(clocking, config.getInt("clk")), blocks, model.cell2aggressorSet)
+						.values())
+					max = Math.max(max, wns.getMaxActivity());
+				return "ok max_wsa " + max;
+			}
+			default:
+				throw new IllegalArgumentException("unknown request " + tokens[0]);
+			}
+		}
+
+		private int[] clockingOf(ArrayList<Integer> values, int clk) {
+			if (values.size() != chains.size())
+				throw new IllegalArgumentException("clocking needs " + chains.size() + " values, got " + values.size());
+			int[] c = new int[values.size()];
+			for (int i = 0; i < c.length; i++) {
+				c[i] = values.get(i);
+				if (c[i] < 0 || c[i] >= clk)
+					throw new IllegalArgumentException("clocking value " + c[i] + " of chain " + i + " not in 0.."
+							+ (clk - 1));
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * simulates the WSA of blocks * 32 shift cycles of random patterns with the given clocking.
+	 *
+	 * @return the weighted aggressor node set of each scan cell after simulation.
+	 */
+	private HashMap<ScanCell, WeightedNodeSet> simulateWsa(ScanChains chains, int[] clocking, int blocks,
+			HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet) {
+		log.info("WSA Simulation Setup...");
+		QBSource shifts = prepareExpandedRandomPatterns(chains, clocking);
+		QBWeightedSwitchingActivitySim sim = new QBWeightedSwitchingActivitySim(circuit, shifts);
+		HashMap<ScanCell, WeightedNodeSet> aggressor_wns = new HashMap<>();
+		for (ScanCell sc : cell2aggressorSet.keySet()) {
+			WeightedNodeSet wns = sim.new WeightedNodeSet(false);
+			for (Cell n : cell2aggressorSet.get(sc)) {
+				wns.add(n, n.outputCount());
+			}
+			aggressor_wns.put(sc, wns);
+		}
+		log.info("WSA Simulation Start...");
+		for (int i = 0; i < blocks; i++) {
+			sim.next();
+		}
+		log.info("WSA Simulation Finished.");
+		return aggressor_wns;
+	}
+
+	/**
+	 * @return the analysis cache in the directory given by -cache, or null if caching is off.
+	 */
+	private AnalysisCache openCacheFromArgs(double arx, double ary) throws IOException {
+		if (!argsParsed().hasOption("cache"))
+			return null;
+		if (!argsParsed().hasOption("d")) {
+			log.warn("AnalysisCache needs the netlist given by -d, caching disabled.");
+			return null;
+		}
+		File netlist = new File(argsParsed().getOptionValue("d"));
+		File def = argsParsed().hasOption("def") ? new File(argsParsed().getOptionValue("def")) : null;
+		String key = AnalysisCache.key(netlist, def, arx, ary);
+		log.info("AnalysisCacheKey " + key);
+		return new AnalysisCache(new File(argsParsed().getOptionValue("cache")), key);
+	}
+
 	private CBInfo collectClockBuffers(Circuit graph, ScanChains ci) {
 		log.info("Collecting clock buffers for each scan cell");
 
@@ -474,35 +1028,59 @@ public class Main extends KyupiApp {
 
 	private void calculateImpactSets(ScanChains chains, CBInfo cbinfo,
 			HashMap<ScanChain, HashSet<Cell>> chain2impactSet) {
-		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
-			ScanChain chain = chains.get(chainIdx);
-			HashSet<Cell> impactSet = new HashSet<>();
-			chain2impactSet.put(chain, impactSet);
-			for (ScanCell cell : chain.cells) {
-				impactSet.add(cell.node);
-				impactSet.addAll(CircuitTools.collectCombinationalOutputCone(cell.node));
-				if (cbinfo.sff_to_clock_buffer_set.get(cell) != null)
-					impactSet.addAll(cbinfo.sff_to_clock_buffer_set.get(cell));
-			}
-			impactSet.removeIf(new Predicate<Cell>() {
-				public boolean test(Cell n) {
-					return n.isPseudo();
-				}
-			});
-		}
+		ImpactSets.calculate(chains, cbinfo, chain2impactSet);
 	}
 
 	private void calculateAggressorSets(ScanChains chains, Placement placement, int arxnm, int arynm,
 			HashMap<ScanCell, HashSet<Cell>> cell2aggressors, HashMap<ScanChain, HashSet<Cell>> chain2aggressors) {
+		PlacementGrid grid = new PlacementGrid(placement, arxnm, arynm);
+		int[][] sffXY = scanCellCoordinates(chains, placement);
+		calculateAggressorSets(chains, grid, grid.queryAll(sffXY[0], sffXY[1], arxnm, arynm), cell2aggressors,
+				chain2aggressors);
+	}
+
+	/**
+	 * @return the aggressor lists of all scan cells in chain order for regions up to arxnm x arynm.
+	 */
+	private AggressorLists newAggressorLists(ScanChains chains, Placement placement, int arxnm, int arynm) {
+		PlacementGrid grid = new PlacementGrid(placement, arxnm, arynm);
+		int[][] sffXY = scanCellCoordinates(chains, placement);
+		return new AggressorLists(grid, sffXY[0], sffXY[1], arxnm, arynm);
+	}
+
+	/**
+	 * @return x and y coordinates of all scan cells in chain order.
+	 */
+	private int[][] scanCellCoordinates(ScanChains chains, Placement placement) {
+		ArrayList<ScanCell> sffs = new ArrayList<>();
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++)
+			sffs.addAll(chains.get(chainIdx).cells);
+		int[][] xy = new int[2][sffs.size()];
+		for (int i = 0; i < sffs.size(); i++) {
+			xy[0][i] = placement.getX(sffs.get(i).node);
+			xy[1][i] = placement.getY(sffs.get(i).node);
+		}
+		return xy;
+	}
+
+	/**
+	 * takes the aggressor sets of regions arxnm x arynm from the given lists, which may be built for a
+	 * larger region.
+	 */
+	private void calculateAggressorSets(ScanChains chains, AggressorLists lists, int arxnm, int arynm,
+			HashMap<ScanCell, HashSet<Cell>> cell2aggressors, HashMap<ScanChain, HashSet<Cell>> chain2aggressors) {
+		calculateAggressorSets(chains, lists.grid(), lists.viewAll(arxnm, arynm), cell2aggressors, chain2aggressors);
+	}
+
+	private void calculateAggressorSets(ScanChains chains, PlacementGrid grid, int[][] aggressors,
+			HashMap<ScanCell, HashSet<Cell>> cell2aggressors, HashMap<ScanChain, HashSet<Cell>> chain2aggressors) {
+		int sffIdx = 0;
 		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
 			ScanChain chain = chains.get(chainIdx);
 			HashSet<Cell> chainaggressors = new HashSet<Cell>();
 			chain2aggressors.put(chain, chainaggressors);
 			for (ScanCell cell : chain.cells) {
-				int x = placement.getX(cell.node);
-				int y = placement.getY(cell.node);
-				cell2aggressors.put(cell,
-						placement.getRectangle(x - arxnm / 2, y - arynm / 2, x + arxnm / 2, y + arynm / 2));
+				cell2aggressors.put(cell, grid.toSet(aggressors[sffIdx++]));
 				chainaggressors.addAll(cell2aggressors.get(cell));
 			}
 
@@ -558,19 +1136,6 @@ public class Main extends KyupiApp {
 		}
 	}
 
-	private HashMap<ScanCell, HashSet<Cell>> calculateSelfAggressors(ScanChains chains,
-			HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, HashMap<ScanChain, HashSet<Cell>> chain2impactSet) {
-		HashMap<ScanCell, HashSet<Cell>> selfAggressors = new HashMap<>();
-
-		// intersect the impact set with all sff aggressor sets
-		for (ScanCell sff : cell2aggressorSet.keySet()) {
-			HashSet<Cell> agg = new HashSet<>(cell2aggressorSet.get(sff));
-			agg.retainAll(chain2impactSet.get(chains.get(sff.chainIdx())));
-			selfAggressors.put(sff, agg);
-		}
-		return selfAggressors;
-	}
-
 	private void printPartitionCount(int size, int clocks) {
 		BigInteger cnt = sterling(BigInteger.valueOf(size), BigInteger.valueOf(clocks));
 		NumberFormat formatter = new DecimalFormat("0.###E0", DecimalFormatSymbols.getInstance(Locale.ROOT));
@@ -578,59 +1143,53 @@ public class Main extends KyupiApp {
 		log.info("PartitionCount " + formatter.format(cnt));
 	}
 
+	/**
+	 * evaluates s(n, k) = k * (s(n-1, k) + s(n-1, k-1)) with s(n, n) = 1 bottom-up in O(n·k), the
+	 * recurrence of the former recursive version, so that logged PartitionCount values stay the same.
+	 * This is not the Stirling number S(n, k), see PartitionGeneratorSeq.stirling.
+	 */
 	public static BigInteger sterling(BigInteger n, BigInteger k) {
-		if (n.equals(k))
+		int ni = n.intValueExact();
+		int ki = k.intValueExact();
+		if (ni == ki)
 			return BigInteger.ONE;
-		if (k.compareTo(BigInteger.ZERO) == 0 || n.compareTo(BigInteger.ZERO) == 0)
+		if (ki <= 0 || ni <= 0 || ki > ni)
 			return BigInteger.ZERO;
-		return k.multiply(sterling(n.subtract(BigInteger.ONE), k)
-				.add(sterling(n.subtract(BigInteger.ONE), k.subtract(BigInteger.ONE))));
-	}
-
-	private HashMap<ScanCell, HashSet<Cell>> calculateMaxActiveAggressors(ScanChains chains, int[] clocking,
-			HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet, HashMap<ScanChain, HashSet<Cell>> chain2impactSet) {
-		HashMap<ScanCell, HashSet<Cell>> maxActiveAggressors = new HashMap<>();
-
-		int clocks = ArrayTools.max(clocking) + 1;
-
-		// compute sets of possibly active nodes for each staggered clock.
-		ArrayList<HashSet<Cell>> clockImpactSets = new ArrayList<>();
-		for (int c = 0; c < clocks; c++) {
-			HashSet<Cell> clockImpactSet = new HashSet<>();
-			for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
-				if (clocking[chainIdx] != c)
-					continue;
-				ScanChain chain = chains.get(chainIdx);
-				clockImpactSet.addAll(chain2impactSet.get(chain));
-			}
-			clockImpactSets.add(clockImpactSet);
-		}
-
-		// intersect the computed sets with all sff aggressor sets
-		for (ScanCell sff : cell2aggressorSet.keySet()) {
-			HashSet<Cell> aggMax = new HashSet<>();
-			for (int c = 0; c < clocks; c++) {
-				HashSet<Cell> agg = new HashSet<>(cell2aggressorSet.get(sff));
-				agg.retainAll(clockImpactSets.get(c));
-				if (agg.size() > aggMax.size())
-					aggMax = agg;
+		// row[j] = s(i, j) for the current i.
+		BigInteger[] row = new BigInteger[ki + 1];
+		Arrays.fill(row, BigInteger.ZERO);
+		for (int i = 1; i <= ni; i++) {
+			for (int j = Math.min(i, ki); j >= 1; j--) {
+				if (j == i)
+					row[j] = BigInteger.ONE;
+				else
+					row[j] = BigInteger.valueOf(j).multiply(row[j].add(row[j - 1]));
 			}
-			maxActiveAggressors.put(sff, aggMax);
 		}
-		return maxActiveAggressors;
+		return row[ki];
 	}
 
-	private int printSizeHistogram(HashMap<ScanCell, HashSet<Cell>> set, HashMap<ScanCell, HashSet<Cell>> base) {
+	/**
+	 * @param size
+	 *            the number of aggressors of each scan cell [chainIdx][cellIdx] meeting some criterion.
+	 * @param base
+	 *            all aggressors of each scan cell.
+	 * @return the maximum size.
+	 */
+	private int printSizeHistogram(ScanChains chains, int[][] size, HashMap<ScanCell, HashSet<Cell>> base) {
 		int hist[] = new int[11];
 		int maxActiveAggressors = 0;
-		for (ScanCell sff : set.keySet()) {
-			int size = set.get(sff).size();
-			maxActiveAggressors = Math.max(size, maxActiveAggressors);
-			int base_size = base.get(sff).size();
-			int percent = 100 * size / base_size;
-			hist[percent / 10]++;
-		}
-		int sccount = set.size();
+		int sccount = 0;
+		for (int chainIdx = 0; chainIdx < chains.size(); chainIdx++) {
+			ScanChain chain = chains.get(chainIdx);
+			for (int cellIdx = 0; cellIdx < chain.cells.size(); cellIdx++) {
+				maxActiveAggressors = Math.max(size[chainIdx][cellIdx], maxActiveAggressors);
+				int base_size = base.get(chain.cells.get(cellIdx)).size();
+				int percent = 100 * size[chainIdx][cellIdx] / base_size;
+				hist[percent / 10]++;
+				sccount++;
+			}
+		}
 		int sum = 0;
 		for (int i = hist.length - 1; i >= 0; i--) {
 			sum += hist[i];
@@ -0,0 +1,54 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Read-only mapping of a text file in segments of at most 1GiB. Every segment but the last ends behind
+ * a line break, so each line lies within a single segment and can be parsed by absolute index.
+ */
+class MappedFile {
+
+	static final long SEGMENT = 1L << 30;
+
+	/**
+	 * @return the segments in file order. The limit of each segment is its length.
+	 */
+	static ByteBuffer[] mapLines(File f) throws IOException {
+		ArrayList<ByteBuffer> segments = new ArrayList<>();
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			long fileSize = ch.size();
+			long pos = 0;
+			while (pos < fileSize) {
+				long len = Math.min(SEGMENT, fileSize - pos);
+				MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+				int end = (int) len;
+				if (pos + len < fileSize) {
+					while (end > 0 && buf.get(end - 1) != '\n')
+						end--;
+					if (end == 0)
+						throw new IOException("line longer than " + SEGMENT + " bytes in " + f);
+				}
+				buf.limit(end);
+				segments.add(buf);
+				pos += end;
+			}
+		}
+		return segments.toArray(new ByteBuffer[segments.size()]);
+	}
+
+	/**
+	 * @return the end of the line starting at p: the position of its line break or the limit.
+	 */
+	static int lineEnd(ByteBuffer buf, int p) {
+		int limit = buf.limit();
+		while (p < limit && buf.get(p) != '\n')
+			p++;
+		return p;
+	}
+}
@@ -0,0 +1,183 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Costs of all single chains and all chain pairs in one clock, as evaluate_float (or evaluate)
+ * would return them for a clocking with only these chains assigned.
+ *
+ * The table is built in one sweep over the aggressor regions. For each scan cell, the weights of
+ * its aggressors are summed up per impacting chain (a_i) and per pair of chains sharing an
+ * aggressor (a_ij). The cost of a pair at that cell is then a_i + a_j - a_ij. Pairs not meeting in
+ * any aggressor region cost max(single_i, single_j). Victim chains are swept in parallel.
+ */
+public class PairCostTable {
+
+	private final int chains;
+
+	final float[] single;
+
+	// packed lower triangle, pair (i, j) with i < j is at j * (j - 1) / 2 + i.
+	final float[] pair;
+
+	// chains impacting each node in compressed sparse row format, ascending.
+	private int[] node2chainStart;
+	private int[] node2chain;
+
+	/**
+	 * @param weighted
+	 *            true for the costs of evaluate_float, false for the costs of evaluate.
+	 */
+	public PairCostTable(FastCostFunction cost, boolean weighted) {
+		chains = cost.impacts.length;
+
+		int nodes = cost.nodeCount();
+		node2chainStart = new int[nodes + 1];
+		for (BitSet impact : cost.impacts)
+			for (int n = impact.nextSetBit(0); n >= 0; n = impact.nextSetBit(n + 1))
+				node2chainStart[n + 1]++;
+		for (int n = 0; n < nodes; n++)
+			node2chainStart[n + 1] += node2chainStart[n];
+		node2chain = new int[node2chainStart[nodes]];
+		int[] fill = new int[nodes];
+		for (int chain_idx = 0; chain_idx < chains; chain_idx++) {
+			BitSet impact = cost.impacts[chain_idx];
+			for (int n = impact.nextSetBit(0); n >= 0; n = impact.nextSetBit(n + 1))
+				node2chain[node2chainStart[n] + fill[n]++] = chain_idx;
+		}
+
+		int leaf = Math.max(1, chains / (4 * ForkJoinPool.commonPool().getParallelism()));
+		Sweep sweep = ForkJoinPool.commonPool().invoke(new SweepTask(cost, weighted, leaf, 0, chains));
+		single = sweep.single;
+		pair = sweep.pair;
+
+		for (int j = 1; j < chains; j++)
+			for (int i = 0; i < j; i++)
+				pair[index(i, j)] = Math.max(pair[index(i, j)], Math.max(single[i], single[j]));
+
+		node2chainStart = null;
+		node2chain = null;
+	}
+
+	PairCostTable(float[] single, float[] pair) {
+		this.chains = single.length;
+		this.single = single;
+		this.pair = pair;
+	}
+
+	public int size() {
+		return chains;
+	}
+
+	public float single(int chain_idx) {
+		return single[chain_idx];
+	}
+
+	/**
+	 * @return the cost of chains i and j in the same clock, single(i) if i == j.
+	 */
+	public float get(int i, int j) {
+		if (i == j)
+			return single[i];
+		return i < j ? pair[index(i, j)] : pair[index(j, i)];
+	}
+
+	private static int index(int i, int j) {
+		return j * (j - 1) / 2 + i;
+	}
+
+	private static class Sweep {
+		final float[] single;
+		final float[] pair;
+
+		Sweep(int chains) {
+			single = new float[chains];
+			pair = new float[chains * (chains - 1) / 2];
+		}
+
+		void merge(Sweep other) {
+			for (int i = 0; i < single.length; i++)
+				single[i] = Math.max(single[i], other.single[i]);
+			for (int i = 0; i < pair.length; i++)
+				pair[i] = Math.max(pair[i], other.pair[i]);
+		}
+	}
+
+	// sweeps the scan cells of the victim chains from..to-1.
+	private class SweepTask extends RecursiveTask<Sweep> {
+		private static final long serialVersionUID = 1L;
+		private final FastCostFunction cost;
+		private final boolean weighted;
+		private final int leaf;
+		private final int from, to;
+
+		SweepTask(FastCostFunction cost, boolean weighted, int leaf, int from, int to) {
+			this.cost = cost;
+			this.weighted = weighted;
+			this.leaf = leaf;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Sweep compute() {
+			if (to - from > leaf) {
+				int mid = (from + to) >>> 1;
+				SweepTask left = new SweepTask(cost, weighted, leaf, from, mid);
+				SweepTask right = new SweepTask(cost, weighted, leaf, mid, to);
+				right.fork();
+				Sweep l = left.compute();
+				l.merge(right.join());
+				return l;
+			}
+			Sweep sweep = new Sweep(chains);
+			// a_i per chain and a_ij per pair, accumulated in double and cleared after each cell.
+			double[] a = new double[chains];
+			double[] shared = new double[sweep.pair.length];
+			boolean[] seen = new boolean[chains];
+			int[] touched = new int[chains];
+			for (int victim = from; victim < to; victim++) {
+				for (int cell_idx = 0; cell_idx < cost.aregions[victim].length; cell_idx++) {
+					int[] region = cost.aregions[victim][cell_idx];
+					float[] weight = weighted ? cost.aweights[victim][cell_idx] : null;
+					int t = 0;
+					for (int agg_idx = 0; agg_idx < region.length; agg_idx++) {
+						int n = region[agg_idx];
+						double w = weighted ? weight[agg_idx] : 1.0;
+						int start = node2chainStart[n];
+						int end = node2chainStart[n + 1];
+						for (int p = start; p < end; p++) {
+							int i = node2chain[p];
+							if (!seen[i]) {
+								seen[i] = true;
+								touched[t++] = i;
+							}
+							a[i] += w;
+							for (int q = p + 1; q < end; q++)
+								shared[index(i, node2chain[q])] += w;
+						}
+					}
+					for (int p = 0; p < t; p++) {
+						int i = touched[p];
+						sweep.single[i] = Math.max(sweep.single[i], (float) a[i]);
+						for (int q = 0; q < t; q++) {
+							int j = touched[q];
+							if (j <= i)
+								continue;
+							int idx = index(i, j);
+							sweep.pair[idx] = Math.max(sweep.pair[idx], (float) (a[i] + a[j] - shared[idx]));
+							shared[idx] = 0;
+						}
+					}
+					for (int p = 0; p < t; p++) {
+						a[touched[p]] = 0;
+						seen[touched[p]] = false;
+					}
+				}
+			}
+			return sweep;
+		}
+	}
+}
@@ -1,10 +1,121 @@
 package jp.ac.kyutech.ci.grouping;
 
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.log4j.Logger;
 
 public abstract class PartitionGenerator implements Iterable<int[]>, Iterator<int[]> {
 
 	protected static Logger log = Logger.getLogger(PartitionGenerator.class);
+
+	private static final long MIN_SPLIT = 1024;
+
+	/**
+	 * @return a new generator, independent of this one, that continues at the partition with the given
+	 *         index, or null if the generator cannot start at arbitrary indices.
+	 */
+	public PartitionGenerator generatorAt(long index) {
+		return null;
+	}
+
+	/**
+	 * @return a spliterator over the partitions with index from .. to-1. Each part enumerates with its
+	 *         own generator from generatorAt(), so the parts may be consumed by different threads and
+	 *         the partitions do not depend on how the range was split. If generatorAt() is not
+	 *         supported, this generator is rewound and read sequentially, and only batches of read
+	 *         partitions are handed to other threads.
+	 */
+	public Spliterator<int[]> spliterator(long from, long to) {
+		PartitionGenerator gen = generatorAt(from);
+		if (gen == null)
+			return Spliterators.spliteratorUnknownSize(new RangeIterator(from, to), Spliterator.ORDERED
+					| Spliterator.NONNULL);
+		RangeSpliterator s = new RangeSpliterator(from, to);
+		s.gen = gen;
+		return s;
+	}
+
+	/**
+	 * @return a sequential stream over the partitions with index from .. to-1. Call parallel() on it to
+	 *         evaluate on the common ForkJoinPool.
+	 */
+	public Stream<int[]> stream(long from, long to) {
+		return StreamSupport.stream(spliterator(from, to), false);
+	}
+
+	private class RangeIterator implements Iterator<int[]> {
+
+		private final Iterator<int[]> it;
+		private long from;
+		private final long to;
+
+		RangeIterator(long from, long to) {
+			it = iterator();
+			for (long i = 0; i < from && it.hasNext(); i++)
+				it.next();
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return from < to && it.hasNext();
+		}
+
+		@Override
+		public int[] next() {
+			from++;
+			return it.next();
+		}
+	}
+
+	private class RangeSpliterator implements Spliterator<int[]> {
+
+		private long from;
+		private final long to;
+		private PartitionGenerator gen;
+
+		RangeSpliterator(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super int[]> action) {
+			if (from >= to)
+				return false;
+			if (gen == null)
+				gen = generatorAt(from);
+			from++;
+			action.accept(gen.next());
+			return true;
+		}
+
+		@Override
+		public Spliterator<int[]> trySplit() {
+			if (to - from < 2 * MIN_SPLIT)
+				return null;
+			long mid = (from + to) >>> 1;
+			RangeSpliterator prefix = new RangeSpliterator(from, mid);
+			prefix.gen = gen;
+			from = mid;
+			gen = null;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Math.max(0, to - from);
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL;
+		}
+	}
 }
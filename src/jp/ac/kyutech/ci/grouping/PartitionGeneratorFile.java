@@ -1,78 +1,210 @@
 package jp.ac.kyutech.ci.grouping;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * Reads the clockings of all "Clocking" lines of a log file, e.g. of an earlier sweep. The values
+ * following the token Clocking up to the end of the line form one clocking.
+ *
+ * The file is memory-mapped in segments of at most 1GiB that end at line boundaries, and the offsets
+ * of all clocking lines are indexed once. The generator can therefore be rewound and positioned at any
+ * line, and generators from generatorAt() share the mapping and the index, so parts of the file can be
+ * read by different threads. Parsing works on the mapped bytes directly. read() fills a given array
+ * and does not allocate.
+ */
 public class PartitionGeneratorFile extends PartitionGenerator {
 
-	private BufferedReader br;
-	
-	private int clocks;
-	
-	private int[] clocking;
+	private static final byte[] TOKEN = "Clocking".getBytes(StandardCharsets.US_ASCII);
+
+	// shared by all generators on the same file.
+	private final ByteBuffer[] segments;
+	private final long[] segmentStart;
+
+	// per clocking line: file offset right behind the token.
+	private final long[] offsets;
+	private final int size;
+
+	private final int clocks;
+
+	private int cursor;
 
 	public PartitionGeneratorFile(File f) throws IOException {
 		log.info("Loading clocking from file: " + f);
-		br = new BufferedReader(new FileReader(f));
-		clocking = parseNext();
+		segments = MappedFile.mapLines(f);
+		segmentStart = new long[segments.length];
+		Index index = new Index();
+		long pos = 0;
+		for (int s = 0; s < segments.length; s++) {
+			segmentStart[s] = pos;
+			index.scan(segments[s], pos);
+			pos += segments[s].limit();
+		}
+		offsets = index.offsets;
+		size = index.size;
+		int c = 0;
+		if (size > 0)
+			for (int clk : get(0))
+				c = Math.max(c, clk + 1);
+		clocks = c;
+		log.info("ClockingLines " + size);
 	}
 
-	private int[] parseNext() throws IOException {
-		String line;
-		ArrayList<Integer> arr = null;
-		while ((line = br.readLine()) != null) {
-			if (!line.contains("Clocking"))
-				continue;
-			String[] fields = line.split(" ");
-			for (String f : fields) {
-				if (arr != null) {
-					arr.add(Integer.parseInt(f));
+	private PartitionGeneratorFile(PartitionGeneratorFile other, int cursor) {
+		segments = other.segments;
+		segmentStart = other.segmentStart;
+		offsets = other.offsets;
+		size = other.size;
+		clocks = other.clocks;
+		this.cursor = cursor;
+	}
+
+	private static class Index {
+		long[] offsets = new long[1024];
+		int size = 0;
+
+		void scan(ByteBuffer buf, long base) {
+			int limit = buf.limit();
+			int lineStart = 0;
+			while (lineStart < limit) {
+				int lineEnd = MappedFile.lineEnd(buf, lineStart);
+				int p = findToken(buf, lineStart, lineEnd);
+				if (p >= 0) {
+					if (size == offsets.length)
+						offsets = Arrays.copyOf(offsets, size * 2);
+					offsets[size++] = base + p;
 				}
-				if (f.equals("Clocking"))
-					arr = new ArrayList<>();
+				lineStart = lineEnd + 1;
 			}
-			break;
 		}
-		if (arr != null) {
-			clocks = 0;
-			int[] ret = new int[arr.size()];
-			for (int i = 0; i < ret.length; i++) {
-				ret[i] = arr.get(i);
-				clocks = Math.max(clocks, ret[i]+1);
+	}
+
+	/**
+	 * @return the position behind the token Clocking in the line from .. to-1, or -1.
+	 */
+	private static int findToken(ByteBuffer buf, int from, int to) {
+		for (int p = from; p + TOKEN.length <= to; p++) {
+			if (p > from && buf.get(p - 1) != ' ')
+				continue;
+			int i = 0;
+			while (i < TOKEN.length && buf.get(p + i) == TOKEN[i])
+				i++;
+			if (i < TOKEN.length)
+				continue;
+			int end = p + i;
+			if (end == to || buf.get(end) == ' ' || buf.get(end) == '\r')
+				return end;
+		}
+		return -1;
+	}
+
+	/**
+	 * parses the space separated values from p to the end of the line. At most into.length values are
+	 * stored.
+	 *
+	 * @return the number of values in the line.
+	 */
+	private static int parse(ByteBuffer buf, int p, int[] into) {
+		int limit = buf.limit();
+		int n = 0;
+		while (p < limit) {
+			byte b = buf.get(p);
+			if (b == '\n' || b == '\r')
+				break;
+			if (b == ' ' || b == '\t') {
+				p++;
+				continue;
 			}
-			return ret;
+			int value = 0;
+			while (p < limit && (b = buf.get(p)) >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				p++;
+			}
+			if (p < limit && b != ' ' && b != '\t' && b != '\n' && b != '\r')
+				throw new NumberFormatException("not a clock index at offset " + p + " of clocking line");
+			if (n < into.length)
+				into[n] = value;
+			n++;
 		}
-		return null;
+		return n;
+	}
+
+	private int segmentOf(long offset) {
+		int s = Arrays.binarySearch(segmentStart, offset);
+		return s >= 0 ? s : -s - 2;
+	}
+
+	/**
+	 * parses the clocking with the given line index into the given array without allocation. At most
+	 * into.length values are stored.
+	 *
+	 * @return the number of values of the clocking.
+	 */
+	public int read(int index, int[] into) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("clocking " + index + " of " + size);
+		long offset = offsets[index];
+		int s = segmentOf(offset);
+		return parse(segments[s], (int) (offset - segmentStart[s]), into);
+	}
+
+	/**
+	 * @return the clocking with the given line index as new array.
+	 */
+	public int[] get(int index) {
+		int[] c = new int[read(index, new int[0])];
+		read(index, c);
+		return c;
+	}
+
+	/**
+	 * @return the number of clocking lines in the file.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * positions the generator at the clocking with the given line index.
+	 */
+	public void seek(int index) {
+		cursor = index;
+	}
+
+	/**
+	 * @return a generator on the same mapping and index, positioned at the given line.
+	 */
+	@Override
+	public PartitionGeneratorFile generatorAt(long index) {
+		return new PartitionGeneratorFile(this, (int) index);
 	}
 
 	@Override
 	public Iterator<int[]> iterator() {
-		// FIXME: reset stream?
+		cursor = 0;
 		return this;
 	}
 
 	@Override
 	public boolean hasNext() {
-		return clocking != null;
+		return cursor < size;
 	}
 
 	@Override
 	public int[] next() {
-		int c[] = Arrays.copyOf(clocking, clocking.length);
-		try {
-			parseNext();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		return c;
+		if (cursor >= size)
+			throw new NoSuchElementException();
+		return get(cursor++);
 	}
 
+	/**
+	 * @return the number of clocks used by the first clocking in the file.
+	 */
 	public int clocks() {
 		return clocks;
 	}
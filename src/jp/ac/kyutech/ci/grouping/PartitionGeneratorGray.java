@@ -0,0 +1,256 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Enumerates all partitions of set_size elements into at most partition_count blocks as restricted
+ * growth strings in a minimal-change order: consecutive partitions differ in exactly one element.
+ *
+ * The order is built like a reflected Gray code. The last element sweeps through all values allowed
+ * by its prefix, then the prefix advances by one step, and so on. A sweep always starts and ends at
+ * value 0 or 1, which every prefix allows, so an element keeps its value while its prefix changes.
+ * Sweeps alternate between 0, 2, 3, ..., max, 1 and 1, 2, ..., max, 0.
+ *
+ * Partitions with fewer than partition_count blocks are visited as steps of the walk. blocks() tells
+ * how many blocks the current partition uses.
+ *
+ * The walk is a depth-first traversal of the tree of prefixes, so generatorAt() finds the partition
+ * at any index from the number of completions below each prefix. The direction of a sweep is the
+ * parity of the number of prefixes visited before.
+ */
+public class PartitionGeneratorGray extends PartitionGenerator {
+
+	private final int set_size;
+	private final int partition_count;
+
+	private int[] a;
+
+	// per element: sweep direction (false: 0 .. 1, true: 1 .. 0), position within the sweep and the
+	// largest value allowed in the sweep.
+	private boolean[] reverse;
+	private int[] step;
+	private int[] top;
+
+	// number of elements in each block.
+	private int[] blockSize;
+	private int blocks;
+
+	private boolean first;
+	private boolean done;
+
+	private int movedElement;
+	private int movedFrom;
+
+	public PartitionGeneratorGray(int set_size, int partition_count) {
+		this.set_size = set_size;
+		this.partition_count = partition_count;
+		init();
+	}
+
+	private void init() {
+		a = new int[set_size];
+		reverse = new boolean[set_size];
+		step = new int[set_size];
+		top = new int[set_size];
+		blockSize = new int[Math.max(1, partition_count)];
+		blockSize[0] = set_size;
+		blocks = set_size > 0 ? 1 : 0;
+		for (int i = 1; i < set_size; i++)
+			top[i] = Math.min(1, partition_count - 1);
+		first = true;
+		done = set_size == 0 || partition_count == 0;
+		movedElement = -1;
+		movedFrom = -1;
+	}
+
+	/**
+	 * @return a new generator whose next() returns the partition with the given index of the walk.
+	 *         movedElement() is -1 for this partition.
+	 */
+	@Override
+	public PartitionGeneratorGray generatorAt(long index) {
+		PartitionGeneratorGray gen = new PartitionGeneratorGray(set_size, partition_count);
+		gen.unrank(index);
+		return gen;
+	}
+
+	private void unrank(long index) {
+		if (done)
+			return;
+		// count[r][b]: completions of r more elements with b blocks used so far, saturated at
+		// Long.MAX_VALUE. odd[r][b]: whether count[r][b] is odd, exact.
+		long[][] count = new long[set_size][partition_count + 1];
+		boolean[][] odd = new boolean[set_size][partition_count + 1];
+		for (int r = 0; r < set_size; r++)
+			for (int b = 1; b <= partition_count; b++) {
+				if (r == 0) {
+					count[r][b] = 1;
+					odd[r][b] = true;
+					continue;
+				}
+				long c = multiplySaturated(b, count[r - 1][b]);
+				boolean o = (b & 1) == 1 && odd[r - 1][b];
+				if (b < partition_count) {
+					c = addSaturated(c, count[r - 1][b + 1]);
+					o ^= odd[r - 1][b + 1];
+				}
+				count[r][b] = c;
+				odd[r][b] = o;
+			}
+		if (index < 0 || index >= count[set_size - 1][1]) {
+			done = true;
+			return;
+		}
+
+		// rankOdd[l]: parity of the number of prefixes of length l+1 visited before the current one.
+		boolean[] rankOdd = new boolean[set_size];
+		long rest = index;
+		int used = 1;
+		for (int i = 1; i < set_size; i++) {
+			reverse[i] = rankOdd[i - 1];
+			top[i] = Math.min(used, partition_count - 1);
+			for (step[i] = 0;; step[i]++) {
+				int value = sweepValue(reverse[i], step[i], top[i]);
+				int b = Math.max(used, value + 1);
+				long c = count[set_size - 1 - i][b];
+				if (rest < c) {
+					a[i] = value;
+					used = b;
+					break;
+				}
+				rest -= c;
+				// the skipped subtree holds count[l - i][b] prefixes of length l+1.
+				for (int l = i; l < set_size; l++)
+					rankOdd[l] ^= odd[l - i][b];
+			}
+		}
+
+		Arrays.fill(blockSize, 0);
+		for (int v : a)
+			blockSize[v]++;
+		blocks = used;
+	}
+
+	private static long multiplySaturated(long a, long b) {
+		if (a != 0 && b > Long.MAX_VALUE / a)
+			return Long.MAX_VALUE;
+		return a * b;
+	}
+
+	private static long addSaturated(long a, long b) {
+		long c = a + b;
+		return c < 0 ? Long.MAX_VALUE : c;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (done)
+			return false;
+		if (first)
+			return true;
+		for (int i = set_size - 1; i >= 1; i--)
+			if (step[i] < top[i])
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return a copy of the next partition.
+	 */
+	@Override
+	public int[] next() {
+		if (!advance())
+			throw new NoSuchElementException();
+		return Arrays.copyOf(a, set_size);
+	}
+
+	/**
+	 * moves to the next partition without copying it.
+	 *
+	 * @return false, if there are no more partitions.
+	 */
+	public boolean advance() {
+		if (done)
+			return false;
+		if (first) {
+			first = false;
+			return true;
+		}
+		int i = set_size - 1;
+		while (i >= 1 && step[i] >= top[i])
+			i--;
+		if (i < 1) {
+			done = true;
+			movedElement = -1;
+			return false;
+		}
+		step[i]++;
+		int value = sweepValue(reverse[i], step[i], top[i]);
+		movedElement = i;
+		movedFrom = a[i];
+		if (--blockSize[a[i]] == 0)
+			blocks--;
+		if (blockSize[value]++ == 0)
+			blocks++;
+		a[i] = value;
+
+		// start new sweeps behind i. Their values are 0 or 1 and stay as they are.
+		int max = 0;
+		for (int j = 0; j <= i; j++)
+			max = Math.max(max, a[j]);
+		for (int j = i + 1; j < set_size; j++) {
+			reverse[j] = !reverse[j];
+			step[j] = 0;
+			top[j] = Math.min(max + 1, partition_count - 1);
+			max = Math.max(max, a[j]);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the value at position step of a sweep over 0 .. top.
+	 */
+	private static int sweepValue(boolean reverse, int step, int top) {
+		if (reverse)
+			return step < top ? step + 1 : 0;
+		if (step == 0)
+			return 0;
+		return step < top ? step + 1 : 1;
+	}
+
+	/**
+	 * @return the current partition. The array is modified by the next call to advance().
+	 */
+	public int[] current() {
+		return a;
+	}
+
+	/**
+	 * @return the element changed by the last step, or -1 for the first partition.
+	 */
+	public int movedElement() {
+		return movedElement;
+	}
+
+	/**
+	 * @return the previous block of movedElement().
+	 */
+	public int movedFrom() {
+		return movedFrom;
+	}
+
+	/**
+	 * @return the number of non-empty blocks of the current partition.
+	 */
+	public int blocks() {
+		return blocks;
+	}
+
+	@Override
+	public Iterator<int[]> iterator() {
+		init();
+		return this;
+	}
+}
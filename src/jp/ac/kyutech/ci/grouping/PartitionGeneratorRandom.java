@@ -9,12 +9,14 @@ public class PartitionGeneratorRandom extends PartitionGenerator {
 	private long seed;
 	private long init_seed;
 
-	private int[] prt;
+	private int set_size;
+
+	private final Random rnd = new Random();
 
 	public PartitionGeneratorRandom(int set_size, int partition_count, long init_seed) {
+		this.set_size = set_size;
 		this.partition_count = partition_count;
 		this.init_seed = init_seed;
-		this.prt = new int[set_size];
 		seed = init_seed;
 	}
 
@@ -23,9 +25,14 @@ public class PartitionGeneratorRandom extends PartitionGenerator {
 		return true;
 	}
 
+	/**
+	 * @return a new array with the clocking for the current seed. setSeed gives the same sequence as a
+	 *         new Random for that seed.
+	 */
 	@Override
 	public int[] next() {
-		Random rnd = new Random(seed);
+		rnd.setSeed(seed);
+		int[] prt = new int[set_size];
 		for (int i = 0; i < prt.length; i++) {
 			prt[i] = rnd.nextInt(partition_count);
 		}
@@ -33,6 +40,14 @@ public class PartitionGeneratorRandom extends PartitionGenerator {
 		return prt;
 	}
 
+	/**
+	 * @return a generator that continues with seed init_seed + index.
+	 */
+	@Override
+	public PartitionGeneratorRandom generatorAt(long index) {
+		return new PartitionGeneratorRandom(set_size, partition_count, init_seed + index);
+	}
+
 	@Override
 	public Iterator<int[]> iterator() {
 		seed = init_seed;
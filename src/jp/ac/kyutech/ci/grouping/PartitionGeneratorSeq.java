@@ -1,9 +1,15 @@
 package jp.ac.kyutech.ci.grouping;
 
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+/**
+ * Enumerates all partitions of set_size elements into exactly partition_count non-empty blocks as
+ * restricted growth strings in lexicographic order. Partitions are numbered in this order from 0 to
+ * count()-1, and seek() jumps to any of them directly.
+ */
 public class PartitionGeneratorSeq extends PartitionGenerator {
 
 	private int set_size;
@@ -12,6 +18,10 @@ public class PartitionGeneratorSeq extends PartitionGenerator {
 	private int[] k;
 	private int[] m;
 
+	// completions[r][b]: number of ways to append r elements to a prefix using b blocks, so that
+	// exactly partition_count blocks are used in the end.
+	private BigInteger[][] completions;
+
 	public PartitionGeneratorSeq(int set_size, int partition_count) {
 		this.set_size = set_size;
 		this.partition_count = partition_count;
@@ -79,4 +89,108 @@ public class PartitionGeneratorSeq extends PartitionGenerator {
 		return this;
 	}
 
+	/**
+	 * @return the number of partitions, the Stirling number of the second kind S(set_size,
+	 *         partition_count).
+	 */
+	public BigInteger count() {
+		if (set_size == 0)
+			return partition_count == 0 ? BigInteger.ONE : BigInteger.ZERO;
+		return completions()[set_size - 1][1];
+	}
+
+	/**
+	 * continues the enumeration at the partition with the given index in O(n·k).
+	 */
+	public void seek(BigInteger index) {
+		k = unrank(index);
+		m = new int[set_size];
+		for (int i = 1; i < set_size; i++)
+			m[i] = Math.max(m[i - 1], k[i]);
+	}
+
+	/**
+	 * @return a generator that continues at the partition with the given index.
+	 */
+	@Override
+	public PartitionGeneratorSeq generatorAt(long index) {
+		PartitionGeneratorSeq gen = new PartitionGeneratorSeq(set_size, partition_count);
+		gen.completions = completions();
+		gen.seek(BigInteger.valueOf(index));
+		return gen;
+	}
+
+	/**
+	 * @return the partition with the given index as restricted growth string.
+	 */
+	public int[] unrank(BigInteger index) {
+		if (index.signum() < 0 || index.compareTo(count()) >= 0)
+			throw new IndexOutOfBoundsException("partition index " + index + " of " + count());
+		BigInteger[][] t = completions();
+		int[] rgs = new int[set_size];
+		int blocks = 1;
+		for (int i = 1; i < set_size; i++) {
+			int r = set_size - 1 - i;
+			for (int v = 0; v <= Math.min(blocks, partition_count - 1); v++) {
+				BigInteger c = t[r][v == blocks ? blocks + 1 : blocks];
+				if (index.compareTo(c) < 0) {
+					rgs[i] = v;
+					if (v == blocks)
+						blocks++;
+					break;
+				}
+				index = index.subtract(c);
+			}
+		}
+		return rgs;
+	}
+
+	/**
+	 * @return the index of the given partition, the inverse of unrank.
+	 */
+	public BigInteger rank(int[] rgs) {
+		BigInteger[][] t = completions();
+		BigInteger index = BigInteger.ZERO;
+		int blocks = 1;
+		for (int i = 1; i < set_size; i++) {
+			int r = set_size - 1 - i;
+			for (int v = 0; v < rgs[i]; v++)
+				index = index.add(t[r][v == blocks ? blocks + 1 : blocks]);
+			if (rgs[i] == blocks)
+				blocks++;
+		}
+		return index;
+	}
+
+	private BigInteger[][] completions() {
+		if (completions != null)
+			return completions;
+		int p = partition_count;
+		BigInteger[][] t = new BigInteger[Math.max(set_size, 1)][p + 2];
+		for (int b = 0; b <= p + 1; b++)
+			t[0][b] = (b == p) ? BigInteger.ONE : BigInteger.ZERO;
+		for (int r = 1; r < t.length; r++) {
+			t[r][p + 1] = BigInteger.ZERO;
+			for (int b = 0; b <= p; b++)
+				t[r][b] = t[r - 1][b].multiply(BigInteger.valueOf(b)).add(t[r - 1][b + 1]);
+		}
+		completions = t;
+		return t;
+	}
+
+	/**
+	 * @return the Stirling number of the second kind S(n, k) from a DP table in O(n·k).
+	 */
+	public static BigInteger stirling(int n, int k) {
+		if (k < 0 || k > n)
+			return BigInteger.ZERO;
+		BigInteger[] row = new BigInteger[k + 1];
+		Arrays.fill(row, BigInteger.ZERO);
+		row[0] = BigInteger.ONE;
+		for (int i = 1; i <= n; i++)
+			for (int j = Math.min(i, k); j >= 0; j--)
+				row[j] = (j == 0) ? BigInteger.ZERO : row[j].multiply(BigInteger.valueOf(j)).add(row[j - 1]);
+		return row[k];
+	}
+
 }
\ No newline at end of file
@@ -4,7 +4,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -51,6 +56,135 @@ public class PartitionGeneratorTest {
 		runTestWith(10,4);
 	}
 
+	public void runRankTestWith(int set_size, int partition_count) {
+		PartitionGeneratorSeq gen = new PartitionGeneratorSeq(set_size, partition_count);
+		assertEquals(BigInteger.valueOf(sterling(set_size, partition_count)), gen.count());
+		long idx = 0;
+		for (int[] partition : new PartitionGeneratorSeq(set_size, partition_count)) {
+			BigInteger index = BigInteger.valueOf(idx++);
+			assertTrue(Arrays.equals(partition, gen.unrank(index)));
+			assertEquals(index, gen.rank(partition));
+		}
+	}
+
+	@Test
+	public void testRank() {
+		runRankTestWith(1, 1);
+		runRankTestWith(3, 3);
+		runRankTestWith(5, 2);
+		runRankTestWith(7, 4);
+		runRankTestWith(10, 4);
+	}
+
+	@Test
+	public void testSeek() {
+		PartitionGeneratorSeq gen = new PartitionGeneratorSeq(10, 4);
+		int[] expected = null;
+		for (int i = 0; i <= 1234; i++)
+			expected = gen.next();
+		gen.seek(BigInteger.valueOf(1234));
+		assertTrue(Arrays.equals(expected, gen.next()));
+	}
+
+	public void runGrayTestWith(int set_size, int partition_count) {
+		PartitionGeneratorGray gen = new PartitionGeneratorGray(set_size, partition_count);
+		HashSet<String> unique = new HashSet<>();
+		int[] previous = null;
+		long exact = 0;
+		for (int[] partition : gen) {
+			assertTrue("duplicate partition " + Arrays.toString(partition), unique.add(Arrays.toString(partition)));
+			int max = 0;
+			for (int p : partition) {
+				assertTrue("not a restricted growth string: " + Arrays.toString(partition), p <= max + 1);
+				max = Math.max(max, p);
+			}
+			assertTrue(max < partition_count);
+			assertEquals(max + 1, gen.blocks());
+			if (previous != null) {
+				int changed = 0;
+				for (int i = 0; i < set_size; i++)
+					if (previous[i] != partition[i])
+						changed++;
+				assertEquals("more than one element moved", 1, changed);
+				assertEquals(previous[gen.movedElement()], gen.movedFrom());
+			}
+			if (gen.blocks() == partition_count)
+				exact++;
+			previous = partition;
+		}
+		long total = 0;
+		for (int k = 1; k <= partition_count; k++)
+			total += sterling(set_size, k);
+		assertEquals(total, unique.size());
+		assertEquals(sterling(set_size, partition_count), exact);
+	}
+
+	@Test
+	public void testGray() {
+		runGrayTestWith(1, 1);
+		runGrayTestWith(3, 3);
+		runGrayTestWith(5, 2);
+		runGrayTestWith(7, 4);
+		runGrayTestWith(10, 4);
+	}
+
+	public void runGrayAtTestWith(int set_size, int partition_count) {
+		ArrayList<String> walk = new ArrayList<>();
+		for (int[] p : new PartitionGeneratorGray(set_size, partition_count))
+			walk.add(Arrays.toString(p));
+		for (int i = 0; i < walk.size(); i++) {
+			PartitionGeneratorGray gen = new PartitionGeneratorGray(set_size, partition_count).generatorAt(i);
+			for (int j = i; j < Math.min(walk.size(), i + 3); j++)
+				assertEquals(walk.get(j), Arrays.toString(gen.next()));
+			if (i + 3 >= walk.size())
+				assertFalse(gen.hasNext());
+		}
+		assertFalse(new PartitionGeneratorGray(set_size, partition_count).generatorAt(walk.size()).hasNext());
+	}
+
+	@Test
+	public void testGrayAt() {
+		runGrayAtTestWith(1, 1);
+		runGrayAtTestWith(3, 3);
+		runGrayAtTestWith(5, 2);
+		runGrayAtTestWith(7, 4);
+		runGrayAtTestWith(8, 3);
+	}
+
+	public void runStreamTestWith(PartitionGenerator gen, long count) {
+		List<String> sequential = gen.stream(0, count).map(Arrays::toString).collect(Collectors.toList());
+		List<String> parallel = gen.stream(0, count).parallel().map(Arrays::toString).collect(Collectors.toList());
+		assertEquals(count, sequential.size());
+		assertEquals(sequential, parallel);
+		int i = 0;
+		for (int[] p : gen)
+			if (i < count)
+				assertEquals(sequential.get(i++), Arrays.toString(p));
+			else
+				break;
+	}
+
+	@Test
+	public void testStream() {
+		runStreamTestWith(new PartitionGeneratorSeq(10, 4), sterling(10, 4));
+		runStreamTestWith(new PartitionGeneratorRandom(20, 4, 7), 10000);
+		long gray = 0;
+		for (int k = 1; k <= 4; k++)
+			gray += sterling(10, k);
+		runStreamTestWith(new PartitionGeneratorGray(10, 4), gray);
+		// partitions are not shared between calls of next().
+		PartitionGeneratorRandom rnd = new PartitionGeneratorRandom(20, 4, 7);
+		assertFalse(rnd.next() == rnd.next());
+	}
+
+	@Test
+	public void testStirlingTable() {
+		for (int n = 0; n < 12; n++)
+			for (int k = 0; k <= n; k++)
+				assertEquals(BigInteger.valueOf(sterling(n, k)), PartitionGeneratorSeq.stirling(n, k));
+		assertEquals(new BigInteger("50369882873307917364901"), PartitionGeneratorSeq.stirling(40, 4));
+	}
+
 	@Test
 	public void testSterling() {
 		assertEquals(1, sterling(0, 0));
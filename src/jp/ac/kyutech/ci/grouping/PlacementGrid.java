@@ -0,0 +1,214 @@
+package jp.ac.kyutech.ci.grouping;
+
+import org.kyupi.circuit.Cell;
+import org.kyupi.circuit.Placement;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Uniform grid over all placed cells for rectangle queries. The grid is built once from a Placement
+ * and answers the same queries as Placement.getRectangle (bounds inclusive), but returns indices into
+ * cells() instead of a new HashSet per query. A batch of queries is answered in parallel on the
+ * common ForkJoinPool.
+ *
+ * Bins are binWidth x binHeight nm. With bins about the size of the query rectangles, a query reads
+ * at most 3 x 3 bins.
+ */
+public class PlacementGrid {
+
+	private final Cell[] cells;
+	private final int[] cellX;
+	private final int[] cellY;
+
+	private final int x0, y0;
+	private final int binWidth, binHeight;
+	private final int cols, rows;
+
+	// cells of bin b = row * cols + col are binCell[binStart[b]] .. binCell[binStart[b+1]-1], ascending.
+	private final int[] binStart;
+	private final int[] binCell;
+
+	private static final int MAX_BINS = 1 << 22;
+
+	private static final int PARALLEL_QUERY_THRESHOLD = 256;
+
+	public PlacementGrid(Placement placement, int binWidth, int binHeight) {
+		this(placedCells(placement), placement, binWidth, binHeight);
+	}
+
+	private PlacementGrid(Cell[] cells, Placement placement, int binWidth, int binHeight) {
+		this(cells, coordinates(cells, placement, false), coordinates(cells, placement, true), binWidth, binHeight);
+	}
+
+	/**
+	 * grid over the given cells at (cellX[i], cellY[i]) without a Placement, for tests.
+	 */
+	PlacementGrid(Cell[] cells, int[] cellX, int[] cellY, int binWidth, int binHeight) {
+		this.cells = cells;
+		this.cellX = cellX;
+		this.cellY = cellY;
+		int xmin = Integer.MAX_VALUE, ymin = Integer.MAX_VALUE;
+		int xmax = Integer.MIN_VALUE, ymax = Integer.MIN_VALUE;
+		for (int i = 0; i < cells.length; i++) {
+			xmin = Math.min(xmin, cellX[i]);
+			ymin = Math.min(ymin, cellY[i]);
+			xmax = Math.max(xmax, cellX[i]);
+			ymax = Math.max(ymax, cellY[i]);
+		}
+		if (cells.length == 0) {
+			xmin = ymin = xmax = ymax = 0;
+		}
+		x0 = xmin;
+		y0 = ymin;
+
+		// coarsen bins, if the die would need too many of them.
+		long w = Math.max(1, binWidth);
+		long h = Math.max(1, binHeight);
+		while (((long) xmax - xmin) / w + 1 > MAX_BINS / (((long) ymax - ymin) / h + 1)) {
+			w *= 2;
+			h *= 2;
+		}
+		this.binWidth = (int) Math.min(w, Integer.MAX_VALUE);
+		this.binHeight = (int) Math.min(h, Integer.MAX_VALUE);
+		cols = (int) (((long) xmax - xmin) / this.binWidth + 1);
+		rows = (int) (((long) ymax - ymin) / this.binHeight + 1);
+
+		binStart = new int[cols * rows + 1];
+		int[] bin = new int[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			bin[i] = binOf(cellX[i], cellY[i]);
+			binStart[bin[i] + 1]++;
+		}
+		for (int b = 0; b < cols * rows; b++)
+			binStart[b + 1] += binStart[b];
+		binCell = new int[cells.length];
+		int[] fill = Arrays.copyOf(binStart, cols * rows);
+		for (int i = 0; i < cells.length; i++)
+			binCell[fill[bin[i]]++] = i;
+	}
+
+	private static Cell[] placedCells(Placement placement) {
+		HashSet<Cell> all = placement.getRectangle(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE / 2,
+				Integer.MAX_VALUE / 2);
+		return all.toArray(new Cell[all.size()]);
+	}
+
+	private static int[] coordinates(Cell[] cells, Placement placement, boolean y) {
+		int[] c = new int[cells.length];
+		for (int i = 0; i < cells.length; i++)
+			c[i] = y ? placement.getY(cells[i]) : placement.getX(cells[i]);
+		return c;
+	}
+
+	private int binOf(int x, int y) {
+		return (int) (((long) y - y0) / binHeight) * cols + (int) (((long) x - x0) / binWidth);
+	}
+
+	private int col(int x) {
+		return (int) Math.max(0, Math.min(cols - 1, ((long) x - x0) / binWidth));
+	}
+
+	private int row(int y) {
+		return (int) Math.max(0, Math.min(rows - 1, ((long) y - y0) / binHeight));
+	}
+
+	/**
+	 * @return all placed cells. Query results are indices into this array.
+	 */
+	public Cell[] cells() {
+		return cells;
+	}
+
+	public int size() {
+		return cells.length;
+	}
+
+	public int getX(int idx) {
+		return cellX[idx];
+	}
+
+	public int getY(int idx) {
+		return cellY[idx];
+	}
+
+	/**
+	 * @return the indices of all cells with x1 <= x <= x2 and y1 <= y <= y2, ascending.
+	 */
+	public int[] query(int x1, int y1, int x2, int y2) {
+		if (cells.length == 0 || x2 < x1 || y2 < y1)
+			return new int[0];
+		int c1 = col(x1), c2 = col(x2);
+		int r1 = row(y1), r2 = row(y2);
+		int count = 0;
+		for (int r = r1; r <= r2; r++)
+			count += binStart[r * cols + c2 + 1] - binStart[r * cols + c1];
+		int[] result = new int[count];
+		count = 0;
+		for (int r = r1; r <= r2; r++) {
+			for (int k = binStart[r * cols + c1]; k < binStart[r * cols + c2 + 1]; k++) {
+				int i = binCell[k];
+				if (cellX[i] >= x1 && cellX[i] <= x2 && cellY[i] >= y1 && cellY[i] <= y2)
+					result[count++] = i;
+			}
+		}
+		result = Arrays.copyOf(result, count);
+		if (r2 > r1 || c2 > c1)
+			Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * answers the queries for rectangles of size width x height centered at (x[i], y[i]) in parallel,
+	 * with the same bounds as Main.calculateAggressorSets uses for Placement.getRectangle.
+	 *
+	 * @return the query result for each center.
+	 */
+	public int[][] queryAll(int[] x, int[] y, int width, int height) {
+		int[][] result = new int[x.length][];
+		ForkJoinPool.commonPool().invoke(new QueryTask(x, y, width, height, result, 0, x.length));
+		return result;
+	}
+
+	/**
+	 * @return the cells with the given indices as a new HashSet.
+	 */
+	public HashSet<Cell> toSet(int[] idx) {
+		HashSet<Cell> set = new HashSet<>(idx.length * 4 / 3 + 1);
+		for (int i : idx)
+			set.add(cells[i]);
+		return set;
+	}
+
+	private class QueryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] x, y;
+		private final int width, height;
+		private final int[][] result;
+		private final int from, to;
+
+		QueryTask(int[] x, int[] y, int width, int height, int[][] result, int from, int to) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > PARALLEL_QUERY_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new QueryTask(x, y, width, height, result, from, mid),
+						new QueryTask(x, y, width, height, result, mid, to));
+				return;
+			}
+			for (int i = from; i < to; i++)
+				result[i] = query(x[i] - width / 2, y[i] - height / 2, x[i] + width / 2, y[i] + height / 2);
+		}
+	}
+}
@@ -21,43 +21,118 @@ public class QBWeightedSwitchingActivitySim extends QBSource {
 
 	private ArrayList<WeightedNodeSet> groups = new ArrayList<>();
 
+	/**
+	 * Weighted nodes whose switching activity is summed up per pattern. Nodes are kept as signal index
+	 * and weight in primitive arrays. The activity of all patterns is kept only if requested, otherwise
+	 * only max, sum, count and an optional histogram are updated while simulating.
+	 */
 	public class WeightedNodeSet {
-		private HashMap<Cell, Double> weights = new HashMap<>();
+
+		// signals[k] is the signal observed for node k, weights[k] its accumulated weight.
+		private int[] signals = new int[16];
+		private double[] weights = new double[16];
+		private int size = 0;
+		private final HashMap<Cell, Integer> slotOfNode = new HashMap<>();
+
+		private final boolean keepActivity;
+		private double[] activity;
+		private int activityCount = 0;
+
+		private double max = 0.0;
+		private double sum = 0.0;
+
+		private long[] histogram;
+		private double binWidth;
 
 		public WeightedNodeSet() {
+			this(true);
+		}
+
+		/**
+		 * @param keepActivity
+		 *            keep the activity of each pattern for getActivity(). If false, only the streaming
+		 *            statistics are available.
+		 */
+		public WeightedNodeSet(boolean keepActivity) {
+			this.keepActivity = keepActivity;
+			if (keepActivity)
+				activity = new double[32];
 			groups.add(this);
+			indexValid = false;
 		}
 
+		/**
+		 * adds weight to the node. Weights of repeated nodes add up.
+		 *
+		 * @return the accumulated weight of the node.
+		 */
 		public double add(Cell n, double weight) {
-			double w = weights.getOrDefault(n, Double.valueOf(0.0));
-			weights.put(n, w + weight);
-			return w + weight;
+			Integer k = slotOfNode.get(n);
+			if (k != null) {
+				weights[k] += weight;
+				indexValid = false;
+				return weights[k];
+			}
+			if (size == signals.length) {
+				signals = Arrays.copyOf(signals, size * 2);
+				weights = Arrays.copyOf(weights, size * 2);
+			}
+			// take input signal if there are no outputs.
+			signals[size] = n.outputCount() == 0 ? n.inputSignalAt(0) : n.outputSignalAt(0);
+			weights[size] = weight;
+			slotOfNode.put(n, size);
+			size++;
+			indexValid = false;
+			return weight;
+		}
+
+		/**
+		 * counts the activity of all following patterns in bins of the given width. Activities beyond
+		 * the last bin are counted in the last bin.
+		 */
+		public void setHistogram(int bins, double binWidth) {
+			this.histogram = new long[bins];
+			this.binWidth = binWidth;
+		}
+
+		/**
+		 * @return the patterns per activity bin, or null if no histogram was set.
+		 */
+		public long[] getHistogram() {
+			return histogram == null ? null : histogram.clone();
 		}
-		
-		private ArrayList<Double> activity = new ArrayList<>();
-		
+
+		private void addActivity(double a) {
+			if (keepActivity) {
+				if (activityCount == activity.length)
+					activity = Arrays.copyOf(activity, activityCount * 2);
+				activity[activityCount] = a;
+			}
+			activityCount++;
+			sum += a;
+			if (a > max)
+				max = a;
+			if (histogram != null)
+				histogram[(int) Math.min(histogram.length - 1, a / binWidth)]++;
+		}
+
 		public double getActivity(int pattern_idx) {
-			return activity.get(pattern_idx);
+			if (!keepActivity)
+				throw new UnsupportedOperationException("activity of single patterns is not kept");
+			if (pattern_idx >= activityCount)
+				throw new IndexOutOfBoundsException("pattern " + pattern_idx + " of " + activityCount);
+			return activity[pattern_idx];
 		}
-		
+
 		public int activitySize() {
-			return activity.size();
+			return activityCount;
 		}
-		
+
 		public double getAverageActivity() {
-			double sum = 0.0;
-			for (Double d: activity) {
-				sum += d;
-			}
-			return sum / activity.size();
+			return sum / activityCount;
 		}
 
 		public double getMaxActivity() {
-			double max = 0.0;
-			for (Double d : activity) {
-				if (d > max)
-					max = d;
-				}
 			return max;
 		}
 	}
@@ -71,7 +146,64 @@ public class QBWeightedSwitchingActivitySim extends QBSource {
 		this.state = (new CombLogicSim(circuit)).new State();
 	}
 
-	private double[] tmp = new double[32];
+	// distinct observed signals of all groups and, per signal slot, the groups it is weighted in:
+	// entries nodeStart[s] .. nodeStart[s+1]-1 of entryGroup and entryWeight.
+	private boolean indexValid = false;
+	private int[] slotOfSignal = new int[0];
+	private int[] slotSignal;
+	private int[] nodeStart;
+	private int[] entryGroup;
+	private double[] entryWeight;
+
+	private long[] toggles;
+	private double[] acc;
+
+	// toggles of the patterns are at the even bit positions of v ^ (v >> 1).
+	private static final long PATTERN_BITS = 0x5555555555555555L;
+
+	private void buildIndex() {
+		int entries = 0;
+		int slots = 0;
+		slotSignal = new int[16];
+		Arrays.fill(slotOfSignal, -1);
+		for (WeightedNodeSet g : groups) {
+			for (int k = 0; k < g.size; k++) {
+				int signal = g.signals[k];
+				if (signal >= slotOfSignal.length) {
+					int old = slotOfSignal.length;
+					slotOfSignal = Arrays.copyOf(slotOfSignal, Math.max(signal + 1, old * 2));
+					Arrays.fill(slotOfSignal, old, slotOfSignal.length, -1);
+				}
+				if (slotOfSignal[signal] < 0) {
+					if (slots == slotSignal.length)
+						slotSignal = Arrays.copyOf(slotSignal, slots * 2);
+					slotSignal[slots] = signal;
+					slotOfSignal[signal] = slots++;
+				}
+			}
+			entries += g.size;
+		}
+		nodeStart = new int[slots + 1];
+		for (WeightedNodeSet g : groups)
+			for (int k = 0; k < g.size; k++)
+				nodeStart[slotOfSignal[g.signals[k]] + 1]++;
+		for (int s = 0; s < slots; s++)
+			nodeStart[s + 1] += nodeStart[s];
+		int[] fill = Arrays.copyOf(nodeStart, slots);
+		entryGroup = new int[entries];
+		entryWeight = new double[entries];
+		for (int gi = 0; gi < groups.size(); gi++) {
+			WeightedNodeSet g = groups.get(gi);
+			for (int k = 0; k < g.size; k++) {
+				int e = fill[slotOfSignal[g.signals[k]]]++;
+				entryGroup[e] = gi;
+				entryWeight[e] = g.weights[k];
+			}
+		}
+		toggles = new long[slots];
+		acc = new double[groups.size() * 32];
+		indexValid = true;
+	}
 
 	@Override
 	protected QBlock compute() {
@@ -80,23 +212,29 @@ public class QBWeightedSwitchingActivitySim extends QBSource {
 		QBlock b = source.next();
 		state.loadInputsFrom(b);
 		state.propagate();
-		for (WeightedNodeSet g : groups) {
-			Arrays.fill(tmp, 0.0);
-			for (Cell n : g.weights.keySet()) {
-				long v;
-				if (n.outputCount() == 0) {
-					v = state.getV(n.inputSignalAt(0));	// take input signal if there are no outputs.
-				} else {
-					v = state.getV(n.outputSignalAt(0));
-				}
-				long diff = v ^ (v >> 1);
-				for (int i = 0; i < 32; i++) {
-					tmp[i] += g.weights.get(n) * (diff & 1L);
-					diff = diff >> 2;
-				}
+		if (!indexValid)
+			buildIndex();
+		int slots = toggles.length;
+		for (int s = 0; s < slots; s++) {
+			long v = state.getV(slotSignal[s]);
+			toggles[s] = (v ^ (v >> 1)) & PATTERN_BITS;
+		}
+		Arrays.fill(acc, 0.0);
+		for (int s = 0; s < slots; s++) {
+			long diff = toggles[s];
+			if (diff == 0)
+				continue;
+			for (int e = nodeStart[s]; e < nodeStart[s + 1]; e++) {
+				int base = entryGroup[e] * 32;
+				double w = entryWeight[e];
+				for (long d = diff; d != 0; d &= d - 1)
+					acc[base + (Long.numberOfTrailingZeros(d) >>> 1)] += w;
 			}
+		}
+		for (int gi = 0; gi < groups.size(); gi++) {
+			WeightedNodeSet g = groups.get(gi);
 			for (int i = 0; i < 32; i++) {
-				g.activity.add(tmp[i]);
+				g.addActivity(acc[gi * 32 + i]);
 			}
 		}
 		//state.capture();
@@ -1,5 +1,6 @@
 package jp.ac.kyutech.ci.grouping;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
@@ -58,4 +59,119 @@ public class QBWeightedSwitchingActivitySimTest {
 
 	}
 
+	/**
+	 * @return a simulator over the patterns of test() at the start of each of the given number of
+	 *         blocks of 32 patterns.
+	 */
+	private QBWeightedSwitchingActivitySim simOf(LevelizedCircuit circuit, int blocks) {
+		ArrayList<BVector> v = new ArrayList<>();
+		for (int block = 0; block < blocks; block++) {
+			while (v.size() % 64 != 0)
+				v.add(new BVector("000"));
+			v.add(new BVector("110")); // activity 0
+			v.add(new BVector("100"));
+			v.add(new BVector("100")); // activity 1
+			v.add(new BVector("000"));
+			v.add(new BVector("110")); // activity 2
+			v.add(new BVector("010"));
+		}
+		BVSource pat = BVSource.from(3, v);
+		return new QBWeightedSwitchingActivitySim(circuit, QBSource.from(pat));
+	}
+
+	@Test
+	public void testStatistics() {
+		LevelizedCircuit circuit = CircuitTools.parseBench("INPUT(a) INPUT(b) OUTPUT(z) z=AND(a,b)").levelized();
+		QBWeightedSwitchingActivitySim sim = simOf(circuit, 1);
+
+		LevelizedCell and = circuit.searchCellByName("z_");
+		LevelizedCell a = circuit.searchCellByName("a");
+
+		WeightedNodeSet full = sim.new WeightedNodeSet();
+		full.add(and, 2.2);
+		full.add(a, 1.5);
+
+		WeightedNodeSet streaming = sim.new WeightedNodeSet(false);
+		assertEquals(1.1, streaming.add(and, 1.1), 0.001);
+		assertEquals(1.5, streaming.add(a, 1.5), 0.001);
+		assertEquals(2.2, streaming.add(and, 1.1), 0.001);
+		streaming.setHistogram(3, 1.0);
+
+		sim.next();
+
+		assertEquals(32, streaming.activitySize());
+		assertEquals(full.getMaxActivity(), streaming.getMaxActivity(), 0.001);
+		assertEquals(full.getAverageActivity(), streaming.getAverageActivity(), 0.001);
+		assertEquals(3.7, streaming.getMaxActivity(), 0.001);
+		assertEquals(7.4 / 32, streaming.getAverageActivity(), 0.001);
+		assertArrayEquals(new long[] { 29, 1, 2 }, streaming.getHistogram());
+	}
+
+	@Test
+	public void testSharedNodes() {
+		LevelizedCircuit circuit = CircuitTools.parseBench("INPUT(a) INPUT(b) OUTPUT(z) z=AND(a,b)").levelized();
+		// activity 0: b and z toggle, 1: a toggles, 2: a and z toggle.
+		QBWeightedSwitchingActivitySim sim = simOf(circuit, 2);
+
+		LevelizedCell and = circuit.searchCellByName("z_");
+		LevelizedCell a = circuit.searchCellByName("a");
+		LevelizedCell b = circuit.searchCellByName("b");
+
+		// a is shared by wns1 and wns2 and occurs twice in wns2.
+		WeightedNodeSet wns1 = sim.new WeightedNodeSet();
+		wns1.add(and, 2.0);
+		wns1.add(a, 1.0);
+		WeightedNodeSet wns2 = sim.new WeightedNodeSet();
+		wns2.add(a, 0.5);
+		assertEquals(0.75, wns2.add(a, 0.25), 0.001);
+		WeightedNodeSet wns3 = sim.new WeightedNodeSet();
+		wns3.add(b, 3.0);
+
+		sim.next();
+
+		assertEquals(2.0, wns1.getActivity(0), 0.001);
+		assertEquals(1.0, wns1.getActivity(1), 0.001);
+		assertEquals(3.0, wns1.getActivity(2), 0.001);
+		assertEquals(0.0, wns1.getActivity(3), 0.001);
+		assertEquals(0.0, wns2.getActivity(0), 0.001);
+		assertEquals(0.75, wns2.getActivity(1), 0.001);
+		assertEquals(0.75, wns2.getActivity(2), 0.001);
+		assertEquals(3.0, wns3.getActivity(0), 0.001);
+		assertEquals(0.0, wns3.getActivity(1), 0.001);
+
+		// nodes and groups added after simulation started count from the next block on.
+		wns2.add(b, 1.0);
+		wns3.add(and, 4.0);
+		WeightedNodeSet wns4 = sim.new WeightedNodeSet();
+		wns4.add(a, 2.0);
+
+		sim.next();
+
+		assertEquals(64, wns1.activitySize());
+		assertEquals(32, wns4.activitySize());
+		assertEquals(2.0, wns1.getActivity(32), 0.001);
+		assertEquals(1.0, wns1.getActivity(33), 0.001);
+		assertEquals(3.0, wns1.getActivity(34), 0.001);
+		assertEquals(1.0, wns2.getActivity(32), 0.001);
+		assertEquals(0.75, wns2.getActivity(33), 0.001);
+		assertEquals(0.75, wns2.getActivity(34), 0.001);
+		assertEquals(7.0, wns3.getActivity(32), 0.001);
+		assertEquals(0.0, wns3.getActivity(33), 0.001);
+		assertEquals(4.0, wns3.getActivity(34), 0.001);
+		assertEquals(0.0, wns4.getActivity(0), 0.001);
+		assertEquals(2.0, wns4.getActivity(1), 0.001);
+		assertEquals(2.0, wns4.getActivity(2), 0.001);
+		assertEquals(7.0, wns3.getMaxActivity(), 0.001);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testNoActivity() {
+		LevelizedCircuit circuit = CircuitTools.parseBench("INPUT(a) INPUT(b) OUTPUT(z) z=AND(a,b)").levelized();
+		QBWeightedSwitchingActivitySim sim = simOf(circuit, 1);
+		WeightedNodeSet streaming = sim.new WeightedNodeSet(false);
+		streaming.add(circuit.searchCellByName("a"), 1.0);
+		sim.next();
+		streaming.getActivity(0);
+	}
+
 }
@@ -19,6 +19,8 @@ public abstract class ScanChainGrouper {
 	protected ScanChains chains;
 	protected HashMap<ScanCell, HashSet<Cell>> cell2aggressorSet;
 	protected HashMap<ScanChain, HashSet<Cell>> chain2impactSet;
+	protected CostModel costModel;
+	protected PairCostTable pairCostTable;
 
 	public void setRowHeight(int row_height){ this.row_height = row_height; }
 
@@ -36,5 +38,50 @@ public abstract class ScanChainGrouper {
 		this.chain2impactSet = chain2impactSet;
 	}
 
+	public void setCostModel(CostModel costModel) {
+		this.costModel = costModel;
+	}
+
+	/**
+	 * @return a cost function on the shared cost model, which is built first if none was set.
+	 */
+	protected FastCostFunction newCostFunction() {
+		if (costModel == null)
+			costModel = new CostModel(chain2impactSet, cell2aggressorSet, row_height, placement);
+		return new FastCostFunction(costModel);
+	}
+
+	public void setPairCostTable(PairCostTable pairCostTable) {
+		this.pairCostTable = pairCostTable;
+	}
+
+	/**
+	 * @return the weighted pair costs on the shared cost model, which are computed first if none were
+	 *         set.
+	 */
+	public PairCostTable getPairCostTable() {
+		if (pairCostTable == null)
+			pairCostTable = new PairCostTable(newCostFunction(), true);
+		return pairCostTable;
+	}
+
+	public boolean hasPairCostTable() {
+		return pairCostTable != null;
+	}
+
+	/**
+	 * gives another grouper the same design data and shared cost model, e.g. to seed a search with its
+	 * result.
+	 */
+	protected void setUp(ScanChainGrouper other) {
+		other.setRowHeight(row_height);
+		other.setPlacement(placement);
+		other.setChains(chains);
+		other.setCell2aggressorSet(cell2aggressorSet);
+		other.setChain2impactSet(chain2impactSet);
+		other.setCostModel(costModel);
+		other.setPairCostTable(pairCostTable);
+	}
+
 	public abstract int[] calculateClocking(int clockCount);
 }
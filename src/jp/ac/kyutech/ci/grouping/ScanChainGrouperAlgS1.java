@@ -8,10 +8,12 @@ public class ScanChainGrouperAlgS1 extends ScanChainGrouper {
 
 	private FastCostFunction cost;
 
+	private IncrementalCostFunction inc;
+
 	public int[] calculateClocking(int clockCount) {
 
 		if (cost == null) {
-			cost = new FastCostFunction(chain2impactSet, cell2aggressorSet, row_height, placement);
+			cost = newCostFunction();
 			log.info("finished setup.");
 		}
 
@@ -27,7 +29,7 @@ public class ScanChainGrouperAlgS1 extends ScanChainGrouper {
 			for (int c = 0; c < clocking.length; c++) {
 				cand_clocking[c] = r.nextInt(clockCount);
 			}
-			float this_cost = cost.evaluate_float(cand_clocking, clockCount);
+			float this_cost = cost.evaluateBounded_float(cand_clocking, clockCount, cand_cost);
 			if (this_cost < cand_cost) {
 				System.arraycopy(cand_clocking, 0, clocking, 0, clocking.length);
 				cand_cost = this_cost;
@@ -38,6 +40,7 @@ public class ScanChainGrouperAlgS1 extends ScanChainGrouper {
 
 		log.info("Best after random search: " + cand_cost);
 
+		inc = new IncrementalCostFunction(cost, clockCount, true);
 		for (int i = 0; i < 10; i++) {
 			int chain = findWorstChain(clocking, clockCount);
 			float diff = tweakChain(clocking, clockCount, chain);
@@ -53,12 +56,12 @@ public class ScanChainGrouperAlgS1 extends ScanChainGrouper {
 	private int findWorstChain(int[] clocking, int clockCount) {
 		int worst_chain = -1;
 		float highest_cost_diff = 0;
-		float base_cost = cost.evaluate_float(clocking, clockCount);
+		inc.setClocking(clocking);
+		float base_cost = inc.currentMax();
 		for (int chain_idx = 0; chain_idx < clocking.length; chain_idx++) {
-			int clk = clocking[chain_idx];
-			clocking[chain_idx] = -1;
-			float cost_diff = base_cost - cost.evaluate_float(clocking, clockCount);
-			clocking[chain_idx] = clk;
+			inc.moveChain(chain_idx, -1);
+			float cost_diff = base_cost - inc.currentMax();
+			inc.undo();
 			if (cost_diff > highest_cost_diff) {
 				worst_chain = chain_idx;
 				highest_cost_diff = cost_diff;
@@ -73,10 +76,14 @@ public class ScanChainGrouperAlgS1 extends ScanChainGrouper {
 		int old_clk = clocking[chain_idx];
 		int best_clk = old_clk;
 		float highest_cost_diff = 0;
-		float base_cost = cost.evaluate_float(clocking, clockCount);
+		inc.setClocking(clocking);
+		// weighted cost on both sides. Before the incremental evaluator, candidates were compared by
+		// their unweighted aggressor count.
+		float base_cost = inc.currentMax();
 		for (int clock = 0; clock < clockCount; clock++) {
-			clocking[chain_idx] = clock;
-			float cost_diff = base_cost - cost.evaluate(clocking, clockCount);
+			inc.moveChain(chain_idx, clock);
+			float cost_diff = base_cost - inc.currentMax();
+			inc.undo();
 			if (cost_diff > highest_cost_diff) {
 				best_clk = clock;
 				highest_cost_diff = cost_diff;
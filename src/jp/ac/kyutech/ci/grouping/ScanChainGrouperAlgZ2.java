@@ -18,7 +18,7 @@ public class ScanChainGrouperAlgZ2 extends ScanChainGrouper {
 
     public int[] calculateClocking(int clockCount){
         if (cost == null){
-            cost = new FastCostFunction(chain2impactSet, cell2aggressorSet, row_height, placement);
+            cost = newCostFunction();
             log.info("FastCostFunction initialized");
         }
         int[] thrClocking = new  int[chains.size()];
@@ -57,7 +57,8 @@ public class ScanChainGrouperAlgZ2 extends ScanChainGrouper {
                         for (int clkIdx = 0; clkIdx < clockCount; clkIdx++) {
                             if (clocksFlag[clkIdx] == 1) {
                                 clocking[chainIdx] = clkIdx;
-                                if (cost.evaluate_float(clocking, clockCount) < threshold || Math.abs(cost.evaluate_float(clocking, clockCount) - threshold) < 0.001) {
+                                float this_cost = cost.evaluateBounded_float(clocking, clockCount, threshold + 0.001f);
+                                if (this_cost < threshold || Math.abs(this_cost - threshold) < 0.001) {
                                     log.info("group " + clkIdx + " is reusable");
                                     break;
                                 }
@@ -78,8 +79,9 @@ public class ScanChainGrouperAlgZ2 extends ScanChainGrouper {
                         int tempBestGroup = -1;
                         for (int clkIdx = 0; clkIdx < clockCount; clkIdx++) {
                             clocking[chainIdx] = clkIdx;
-                            if (tempMinCost > cost.evaluate_float(clocking, clockCount)) {
-                                tempMinCost = cost.evaluate_float(clocking, clockCount);
+                            float this_cost = cost.evaluateBounded_float(clocking, clockCount, tempMinCost);
+                            if (tempMinCost > this_cost) {
+                                tempMinCost = this_cost;
                                 tempBestGroup = clkIdx;
                             }
                         }
@@ -11,7 +11,7 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 	public int[] calculateClocking(int clockCount) {
 
 		if (cost == null) {
-			cost = new FastCostFunction(chain2impactSet, cell2aggressorSet, row_height, placement);
+			cost = newCostFunction();
 			log.info("FastCostFunction initialized.");
 		}
 
@@ -26,13 +26,14 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 		float lowerBound = cost.evaluate_float(clocking, clocking.length);
 		log.info("LowerBound (by c=∞) " + lowerBound);
 
-		float[] singleCost = calculateSingleCost(clocking);
+		PairCostTable pairCost = getPairCostTable();
+		float[] singleCost = new float[chains.size()];
+		for (int i = 0; i < singleCost.length; i++)
+			singleCost[i] = pairCost.single(i);
 		log.debug("SingleCost " + Arrays.toString(singleCost));
 		int[] costOrder = calculateCostOrder(singleCost);
 		log.debug("CostOrder " + Arrays.toString(costOrder));
 
-		float[][] pairCost = calculatePairCost(clocking);
-
 		lowerBound = Math.max(lowerBound, searchLowerBound(lowerBound, upperBound, clockCount, pairCost, clocking));
 		log.info("LowerBound (after pair coloring) " + lowerBound);
 
@@ -40,7 +41,7 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 		GraphColorizer g = new GraphColorizer(chains.size(), clockCount);
 		addPairConstraints(g, pairCost, lowerBound);
 		clocking = g.colorize();
-		float bestKnown = cost.evaluate_float(clocking, clockCount);
+		float bestKnown = cost.evaluateParallel_float(clocking, clockCount);
 		log.info("BestKnownSolution (after pair coloring) " + bestKnown);
 
 		if (lowerBound == bestKnown) {
@@ -72,7 +73,7 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 				log.info("LowerBound " + lowerBound);
 				return clocking;
 			}
-			int newCost = cost.evaluate(clocking_tmp, clockCount);
+			int newCost = cost.evaluateParallel(clocking_tmp, clockCount);
 			if (newCost < bestKnown) {
 				System.arraycopy(clocking_tmp, 0, clocking, 0, clocking.length);
 				bestKnown = newCost;
@@ -82,17 +83,6 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 
 	}
 
-	private float[] calculateSingleCost(int[] clocking) {
-		float[] singleCost = new float[clocking.length];
-		Arrays.fill(clocking, -1);
-		for (int i = 0; i < clocking.length; i++) {
-			clocking[i] = 0;
-			singleCost[i] = cost.evaluate_float(clocking, 1);
-			clocking[i] = -1;
-		}
-		return singleCost;
-	}
-
 	private int[] calculateCostOrder(float[] singleCost) {
 		class P {
 			int idx;
@@ -127,31 +117,7 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 		return costOrder;
 	}
 
-	private float[][] calculatePairCost(int[] clocking) {
-		float[][] pairCost = new float[clocking.length][clocking.length];
-		Arrays.fill(clocking, -1);
-		int pairCount = clocking.length * clocking.length / 2;
-		int pairIdx = 0;
-		int progressLast = -1;
-		for (int i = 0; i < clocking.length; i++) {
-			clocking[i] = 0;
-			for (int j = i + 1; j < clocking.length; j++) {
-				clocking[j] = 0;
-				pairCost[i][j] = cost.evaluate_float(clocking, 1);
-				clocking[j] = -1;
-				pairIdx++;
-				int progress = 100 * pairIdx / pairCount;
-				if (progress % 10 == 0 && progress != progressLast) {
-					log.debug("PairCost calculation " + progress + "%% ...");
-					progressLast = progress;
-				}
-			}
-			clocking[i] = -1;
-		}
-		return pairCost;
-	}
-
-	private float searchLowerBound(float lb, float ub, int clockCount, float[][] pairCost, int[] solution) {
+	private float searchLowerBound(float lb, float ub, int clockCount, PairCostTable pairCost, int[] solution) {
 		float middle = (ub - lb) / 2 + lb;
 		GraphColorizer g = new GraphColorizer(chains.size(), clockCount);
 		addPairConstraints(g, pairCost, middle);
@@ -172,10 +138,10 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 		}
 	}
 
-	private void addPairConstraints(GraphColorizer g, float[][] pairCost, float costThreshold) {
+	private void addPairConstraints(GraphColorizer g, PairCostTable pairCost, float costThreshold) {
 		for (int i = 0; i < chains.size(); i++)
 			for (int j = i + 1; j < chains.size(); j++)
-				if (pairCost[i][j] > costThreshold)
+				if (pairCost.get(i, j) > costThreshold)
 					g.addEdge(i, j);
 	}
 
@@ -198,7 +164,7 @@ public class ScanChainGrouperAlgZ3 extends ScanChainGrouper {
 			if (clocking_tmp[chain] == -1)
 				continue;
 			clocking_tmp[chain] = -1;
-			if (cost.evaluate_float(clocking_tmp, 1) >= base)
+			if (cost.evaluateBounded_float(clocking_tmp, 1, Math.nextDown(base)) >= base)
 				edgeSize--;
 			else
 				clocking_tmp[chain] = 0;
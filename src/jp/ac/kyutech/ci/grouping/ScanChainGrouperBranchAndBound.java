@@ -0,0 +1,134 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.Arrays;
+
+/**
+ * Exact grouping by branch and bound. Chains are assigned depth-first in order of decreasing single
+ * chain cost. A chain may only open the next unused clock, so each partition is visited once instead
+ * of once per permutation of the clocks (restricted growth order).
+ *
+ * The cost of a clock can only grow when chains are added, so a partial assignment is pruned when its
+ * cost or the single cost of the next chain (which is the largest of all remaining) reaches the
+ * incumbent. The incumbent is seeded with the result of S1. Costs are those of evaluate_float,
+ * computed incrementally by IncrementalCostFunction.
+ */
+public class ScanChainGrouperBranchAndBound extends ScanChainGrouper {
+
+	private long nodeLimit = Long.MAX_VALUE;
+
+	private FastCostFunction cost;
+
+	private IncrementalCostFunction inc;
+
+	private int clockCount;
+	private int[] order;
+	private float[] single;
+
+	private float best;
+	private int[] bestClocking;
+	private long nodes;
+	private boolean complete;
+
+	/**
+	 * stops the search after the given number of search nodes. The result is then the best clocking
+	 * found so far, without proof of optimality.
+	 */
+	public void setNodeLimit(long nodeLimit) {
+		this.nodeLimit = nodeLimit;
+	}
+
+	public int[] calculateClocking(int clockCount) {
+
+		if (cost == null) {
+			cost = newCostFunction();
+			log.info("finished setup.");
+		}
+		this.clockCount = clockCount;
+
+		ScanChainGrouperAlgS1 seed = new ScanChainGrouperAlgS1();
+		setUp(seed);
+		int[] seedClocking = seed.calculateClocking(clockCount);
+
+		inc = new IncrementalCostFunction(cost, clockCount, true);
+		inc.setClocking(seedClocking);
+		best = inc.currentMax();
+		bestClocking = inc.getClocking();
+		log.info("Incumbent (by S1) " + best);
+
+		int n = chains.size();
+		int[] none = new int[n];
+		Arrays.fill(none, -1);
+		inc.setClocking(none);
+		single = new float[n];
+		Integer[] sorted = new Integer[n];
+		for (int chain_idx = 0; chain_idx < n; chain_idx++) {
+			inc.moveChain(chain_idx, 0);
+			single[chain_idx] = inc.currentMax();
+			inc.undo();
+			sorted[chain_idx] = chain_idx;
+		}
+		Arrays.sort(sorted, (a, b) -> Float.compare(single[b], single[a]));
+		order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = sorted[i];
+
+		nodes = 0;
+		complete = true;
+		search(0, 0);
+
+		log.info("BranchAndBoundNodes " + nodes);
+		if (complete)
+			log.info("Optimal " + best);
+		else
+			log.warn("Node limit reached, best found " + best + " is not proven optimal.");
+		return bestClocking;
+	}
+
+	/**
+	 * @param depth
+	 *            number of chains assigned so far, in the order of order[].
+	 * @param used
+	 *            number of clocks used by the assigned chains.
+	 */
+	private void search(int depth, int used) {
+		if (nodes++ >= nodeLimit) {
+			complete = false;
+			return;
+		}
+		if (depth == order.length) {
+			best = inc.currentMax();
+			bestClocking = inc.getClocking();
+			log.info("Better clocking " + best + " after " + nodes + " nodes.");
+			return;
+		}
+		int chain_idx = order[depth];
+		if (single[chain_idx] >= best)
+			return;
+
+		// try the clocks in order of the cost they lead to.
+		int choices = Math.min(used + 1, clockCount);
+		int[] clocks = new int[choices];
+		float[] costs = new float[choices];
+		for (int c = 0; c < choices; c++) {
+			inc.moveChain(chain_idx, c);
+			float cc = inc.currentMax();
+			inc.undo();
+			int pos = c;
+			while (pos > 0 && costs[pos - 1] > cc) {
+				clocks[pos] = clocks[pos - 1];
+				costs[pos] = costs[pos - 1];
+				pos--;
+			}
+			clocks[pos] = c;
+			costs[pos] = cc;
+		}
+
+		for (int i = 0; i < choices && complete; i++) {
+			if (costs[i] >= best)
+				break;
+			inc.moveChain(chain_idx, clocks[i]);
+			search(depth + 1, Math.max(used, clocks[i] + 1));
+			inc.undo();
+		}
+	}
+}
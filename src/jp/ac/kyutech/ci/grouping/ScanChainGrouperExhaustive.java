@@ -0,0 +1,123 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates every partition of the chains into exactly clockCount groups and returns the best one.
+ * Splitting a group never increases the cost, so partitions with fewer groups need not be evaluated.
+ *
+ * The partition index space of PartitionGeneratorSeq is split into ranges, and each range is
+ * evaluated on the common ForkJoinPool with its own generator, evaluation context and statistics.
+ * The statistics of all ranges are merged at the end.
+ *
+ * With gray code enabled, the partitions are instead visited in the minimal-change order of
+ * PartitionGeneratorGray on a single thread. Each step moves one chain, and IncrementalCostFunction
+ * only updates the scan cells affected by that chain.
+ */
+public class ScanChainGrouperExhaustive extends ScanChainGrouper {
+
+	private static final int MIN_RANGE = 4096;
+
+	private int topK = 10;
+
+	private boolean grayCode = false;
+
+	private FastCostFunction cost;
+
+	public void setTopK(int topK) {
+		this.topK = Math.max(1, topK);
+	}
+
+	public void setGrayCode(boolean grayCode) {
+		this.grayCode = grayCode;
+	}
+
+	public int[] calculateClocking(int clockCount) {
+
+		if (cost == null) {
+			cost = newCostFunction();
+			log.info("finished setup.");
+		}
+
+		PartitionGeneratorSeq gen = new PartitionGeneratorSeq(chains.size(), clockCount);
+		BigInteger total = gen.count();
+		log.info("ExhaustiveCases " + total);
+		if (total.bitLength() > 62)
+			throw new IllegalArgumentException("too many partitions for exhaustive enumeration: " + total);
+
+		CaseStatistics stats = grayCode ? evaluateGray(clockCount) : evaluateRange(clockCount, 0, total.longValue());
+		stats.log(log);
+		return stats.best().get(0).clocking;
+	}
+
+	/**
+	 * evaluates the partitions with index from .. to-1 in parallel.
+	 */
+	public CaseStatistics evaluateRange(int clockCount, long from, long to) {
+		if (cost == null)
+			cost = newCostFunction();
+		long leaf = Math.max(MIN_RANGE, (to - from) / (4 * ForkJoinPool.commonPool().getParallelism()));
+		return ForkJoinPool.commonPool().invoke(new RangeTask(clockCount, leaf, from, to));
+	}
+
+	/**
+	 * evaluates all partitions in gray code order. Partitions with less than clockCount groups are
+	 * stepped over, but not counted. Case indices are in visiting order.
+	 */
+	public CaseStatistics evaluateGray(int clockCount) {
+		if (cost == null)
+			cost = newCostFunction();
+		CaseStatistics stats = new CaseStatistics(topK);
+		IncrementalCostFunction inc = new IncrementalCostFunction(cost, clockCount, true, true);
+		PartitionGeneratorGray gen = new PartitionGeneratorGray(chains.size(), clockCount);
+		long index = 0;
+		while (gen.advance()) {
+			int chain_idx = gen.movedElement();
+			if (chain_idx < 0)
+				inc.setClocking(gen.current());
+			else
+				inc.applyMove(chain_idx, gen.current()[chain_idx]);
+			if (gen.blocks() == clockCount)
+				stats.add(index++, inc.currentMax(), gen.current());
+		}
+		return stats;
+	}
+
+	private class RangeTask extends RecursiveTask<CaseStatistics> {
+		private static final long serialVersionUID = 1L;
+		private final int clockCount;
+		private final long leaf;
+		private final long from, to;
+
+		RangeTask(int clockCount, long leaf, long from, long to) {
+			this.clockCount = clockCount;
+			this.leaf = leaf;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected CaseStatistics compute() {
+			if (to - from > leaf) {
+				long mid = (from + to) >>> 1;
+				RangeTask left = new RangeTask(clockCount, leaf, from, mid);
+				RangeTask right = new RangeTask(clockCount, leaf, mid, to);
+				right.fork();
+				CaseStatistics l = left.compute();
+				l.merge(right.join());
+				return l;
+			}
+			CaseStatistics stats = new CaseStatistics(topK);
+			FastCostFunction.Context ctx = cost.newContext();
+			PartitionGeneratorSeq gen = new PartitionGeneratorSeq(chains.size(), clockCount);
+			gen.seek(BigInteger.valueOf(from));
+			for (long index = from; index < to; index++) {
+				int[] clocking = gen.next();
+				stats.add(index, cost.evaluate_float(ctx, clocking, clockCount), clocking);
+			}
+			return stats;
+		}
+	}
+}
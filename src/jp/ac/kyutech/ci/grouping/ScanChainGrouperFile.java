@@ -0,0 +1,84 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates all clockings of a file (PartitionGeneratorFile) in parallel and returns the best one.
+ * The lines are split into ranges, and each range is parsed directly from the shared mapping into its
+ * own clocking buffer and evaluated with its own context. Case indices are line indices in the file.
+ */
+public class ScanChainGrouperFile extends ScanChainGrouper {
+
+	private static final int MIN_RANGE = 4096;
+
+	private final PartitionGeneratorFile file;
+
+	private int topK = 10;
+
+	private FastCostFunction cost;
+
+	public ScanChainGrouperFile(PartitionGeneratorFile file) {
+		this.file = file;
+	}
+
+	public void setTopK(int topK) {
+		this.topK = Math.max(1, topK);
+	}
+
+	public int[] calculateClocking(int clockCount) {
+		CaseStatistics stats = evaluate(clockCount);
+		stats.log(log);
+		if (stats.count() == 0)
+			throw new IllegalArgumentException("no clockings to evaluate");
+		return stats.best().get(0).clocking;
+	}
+
+	public CaseStatistics evaluate(int clockCount) {
+		if (cost == null) {
+			cost = newCostFunction();
+			log.info("finished setup.");
+		}
+		log.info("FileCases " + file.size());
+		int leaf = Math.max(MIN_RANGE, file.size() / (4 * ForkJoinPool.commonPool().getParallelism()));
+		return ForkJoinPool.commonPool().invoke(new RangeTask(clockCount, leaf, 0, file.size()));
+	}
+
+	private class RangeTask extends RecursiveTask<CaseStatistics> {
+		private static final long serialVersionUID = 1L;
+		private final int clockCount;
+		private final int leaf;
+		private final int from, to;
+
+		RangeTask(int clockCount, int leaf, int from, int to) {
+			this.clockCount = clockCount;
+			this.leaf = leaf;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected CaseStatistics compute() {
+			if (to - from > leaf) {
+				int mid = (from + to) >>> 1;
+				RangeTask left = new RangeTask(clockCount, leaf, from, mid);
+				RangeTask right = new RangeTask(clockCount, leaf, mid, to);
+				right.fork();
+				CaseStatistics l = left.compute();
+				l.merge(right.join());
+				return l;
+			}
+			CaseStatistics stats = new CaseStatistics(topK);
+			FastCostFunction.Context ctx = cost.newContext();
+			int[] clocking = new int[chains.size()];
+			for (int index = from; index < to; index++) {
+				int n = file.read(index, clocking);
+				if (n != clocking.length)
+					throw new IllegalArgumentException(
+							"clocking " + index + " has " + n + " values, expected " + clocking.length);
+				stats.add(index, cost.evaluate_float(ctx, clocking, clockCount), clocking);
+			}
+			return stats;
+		}
+	}
+}
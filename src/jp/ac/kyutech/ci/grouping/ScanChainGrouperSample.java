@@ -0,0 +1,91 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates a large number of random clockings in parallel and returns the best one. Each chain is
+ * assigned a uniformly random clock, as in PartitionGeneratorRandom.
+ *
+ * Only streaming aggregates and the k best cases are kept (CaseStatistics), so memory does not grow
+ * with the number of cases. The cases are split into ranges of fixed size, and each range draws from
+ * its own SplittableRandom stream, split off in a fixed pattern from the seed. The result for a seed
+ * is therefore the same on any number of threads.
+ */
+public class ScanChainGrouperSample extends ScanChainGrouper {
+
+	private static final int RANGE = 4096;
+
+	private long seed = 0;
+
+	private long cases = 1;
+
+	private int topK = 10;
+
+	private FastCostFunction cost;
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setCases(long cases) {
+		this.cases = Math.max(1, cases);
+	}
+
+	public void setTopK(int topK) {
+		this.topK = Math.max(1, topK);
+	}
+
+	public int[] calculateClocking(int clockCount) {
+		CaseStatistics stats = evaluate(clockCount);
+		stats.log(log);
+		return stats.best().get(0).clocking;
+	}
+
+	public CaseStatistics evaluate(int clockCount) {
+		if (cost == null) {
+			cost = newCostFunction();
+			log.info("finished setup.");
+		}
+		log.info("SampleCases " + cases + " Seed " + seed);
+		return ForkJoinPool.commonPool().invoke(new SampleTask(clockCount, new SplittableRandom(seed), 0, cases));
+	}
+
+	private class SampleTask extends RecursiveTask<CaseStatistics> {
+		private static final long serialVersionUID = 1L;
+		private final int clockCount;
+		private final SplittableRandom rnd;
+		private final long from, to;
+
+		SampleTask(int clockCount, SplittableRandom rnd, long from, long to) {
+			this.clockCount = clockCount;
+			this.rnd = rnd;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected CaseStatistics compute() {
+			if (to - from > RANGE) {
+				long ranges = (to - from + RANGE - 1) / RANGE;
+				long mid = from + ranges / 2 * RANGE;
+				SampleTask right = new SampleTask(clockCount, rnd.split(), mid, to);
+				SampleTask left = new SampleTask(clockCount, rnd, from, mid);
+				right.fork();
+				CaseStatistics l = left.compute();
+				l.merge(right.join());
+				return l;
+			}
+			CaseStatistics stats = new CaseStatistics(topK);
+			FastCostFunction.Context ctx = cost.newContext();
+			int[] clocking = new int[chains.size()];
+			for (long index = from; index < to; index++) {
+				for (int chain_idx = 0; chain_idx < clocking.length; chain_idx++)
+					clocking[chain_idx] = rnd.nextInt(clockCount);
+				stats.add(index, cost.evaluate_float(ctx, clocking, clockCount), clocking);
+			}
+			return stats;
+		}
+	}
+}
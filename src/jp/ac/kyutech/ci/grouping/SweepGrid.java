@@ -0,0 +1,103 @@
+package jp.ac.kyutech.ci.grouping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parameter grid of a sweep, given as "name=value,value;name=value,...", e.g.
+ * "clk=2,3,4;arx=100,300;prt_method=s2,bb". Parameters not in the grid take a default value. The
+ * configurations are the cartesian product of all values, the last parameter varying fastest.
+ */
+public class SweepGrid {
+
+	public static class Configuration {
+		private final LinkedHashMap<String, String> values;
+
+		Configuration(LinkedHashMap<String, String> values) {
+			this.values = values;
+		}
+
+		public String get(String name) {
+			return values.get(name);
+		}
+
+		public int getInt(String name) {
+			return Integer.parseInt(get(name));
+		}
+
+		public double getDouble(String name) {
+			return Double.parseDouble(get(name));
+		}
+
+		/**
+		 * @return the values, tab separated in parameter order.
+		 */
+		@Override
+		public String toString() {
+			return String.join("\t", values.values());
+		}
+	}
+
+	private final LinkedHashMap<String, List<String>> grid = new LinkedHashMap<>();
+
+	/**
+	 * @param names
+	 *            the parameters that may be swept, in table column order.
+	 */
+	public SweepGrid(String spec, String... names) {
+		for (String name : names)
+			grid.put(name, null);
+		for (String entry : spec.split(";")) {
+			entry = entry.trim();
+			if (entry.isEmpty())
+				continue;
+			int eq = entry.indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException("sweep entry is not name=values: " + entry);
+			String name = entry.substring(0, eq).trim();
+			if (!grid.containsKey(name))
+				throw new IllegalArgumentException("unknown sweep parameter " + name + ", known are " + grid.keySet());
+			ArrayList<String> values = new ArrayList<>();
+			for (String v : entry.substring(eq + 1).split(","))
+				if (!v.trim().isEmpty())
+					values.add(v.trim());
+			if (values.isEmpty())
+				throw new IllegalArgumentException("no values for sweep parameter " + name);
+			grid.put(name, values);
+		}
+	}
+
+	/**
+	 * @return the parameter names, tab separated in column order.
+	 */
+	public String header() {
+		return String.join("\t", grid.keySet());
+	}
+
+	/**
+	 * @param defaults
+	 *            values of the parameters not given in the grid.
+	 * @return all configurations of the grid.
+	 */
+	public List<Configuration> configurations(Map<String, String> defaults) {
+		ArrayList<Configuration> configs = new ArrayList<>();
+		configs.add(new Configuration(new LinkedHashMap<String, String>()));
+		for (String name : grid.keySet()) {
+			List<String> values = grid.get(name);
+			if (values == null)
+				values = Arrays.asList(defaults.get(name));
+			ArrayList<Configuration> expanded = new ArrayList<>(configs.size() * values.size());
+			for (Configuration c : configs)
+				for (String v : values) {
+					LinkedHashMap<String, String> m = new LinkedHashMap<>(c.values);
+					m.put(name, v);
+					expanded.add(new Configuration(m));
+				}
+			configs = expanded;
+		}
+		return configs;
+	}
+}
@@ -146,10 +146,75 @@ public class FastCostFunction {
         return conflictCounter;
     }
 
+    /**
+     * like evaluate, but stops as soon as a cost difference exceeds bound. The group and the chain
+     * that were worst in the last evaluation are checked first. groupCost is not updated.
+     *
+     * @return the exact cost if it is at most bound, otherwise some value greater than bound.
+     */
+    public int evaluateBounded(int[] clocking, int clocks, int bound){
+        int maxCostDiff = 0;
+        int firstClock = last_clock_id < clocks ? last_clock_id : 0;
+        int worstClock = 0;
+        int worstChain = 0;
+        int worstCell = 0;
+
+        for (int i = 0; i < clocks; i++){
+            // last worst group first, then all others in order
+            int c = (i == 0) ? firstClock : (i <= firstClock ? i - 1 : i);
+            impactUnion.clear();
+            for (int chainId = 0; chainId < impacts.length; chainId++){
+                if (clocking[chainId] == c)
+                    impactUnion.or(impacts[chainId]);
+            }
+            for (int j = -1; j < aregions.length; j++){
+                int chainId = (j == -1) ? last_chain_id : j;
+                if (j == last_chain_id || chainId >= aregions.length || clocking[chainId] != c)
+                    continue;
+                int costPredecessor = 0;
+                for (int cellId = 0; cellId < aregions[chainId].length; cellId++){
+                    int cost = 0;
+                    for (int aggId = 0; aggId < aregions[chainId][cellId].length; aggId++){
+                        if (impactUnion.get(aregions[chainId][cellId][aggId]))
+                            cost++;
+                    }
+                    if (costPredecessor == 0){
+                        costPredecessor = cost;
+                        continue;
+                    }
+                    int costDiff = Math.abs(costPredecessor - cost);
+                    if (costDiff > bound){
+                        last_chain_id = chainId;
+                        last_cell_id = cellId;
+                        last_clock_id = c;
+                        return costDiff;
+                    }
+                    if (costDiff > maxCostDiff){
+                        maxCostDiff = costDiff;
+                        worstClock = c;
+                        worstChain = chainId;
+                        worstCell = cellId;
+                    }
+                    costPredecessor = cost;
+                }
+            }
+        }
+        if (maxCostDiff > 0){
+            last_chain_id = worstChain;
+            last_cell_id = worstCell;
+            last_clock_id = worstClock;
+        }
+        return maxCostDiff;
+    }
+
+    /**
+     * @return true if the cost of the clocking is at most threshold. Evaluation stops at the first
+     *         cost difference beyond threshold, so unlike evaluate, groupCost is not updated.
+     */
     public boolean evaluate_usable(int[] clocking, int clocks, float threshold) {
         boolean usable = false;
 
-        if (evaluate(clocking, clocks) <= threshold)
+        if (evaluateBounded(clocking, clocks, (int) Math.floor(threshold)) <= threshold)
             usable = true;
 
         return usable;
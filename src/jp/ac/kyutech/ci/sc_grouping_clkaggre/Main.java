@@ -1,6 +1,9 @@
 package jp.ac.kyutech.ci.sc_grouping_clkaggre;
 
 import jdk.internal.dynalink.ChainedCallSite;
+import jp.ac.kyutech.ci.grouping.AggressorLists;
+import jp.ac.kyutech.ci.grouping.PlacementGrid;
+import jp.ac.kyutech.ci.grouping.SweepGrid;
 import jp.ac.kyutech.ci.sc_grouping_clkaggre.QBWeightedSwitchingActivitySim.WeightedNodeSet;
 
 import org.kyupi.circuit.*;
@@ -18,6 +21,9 @@ import org.kyupi.sim.BBPlainSim;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 
 public class Main extends KyupiApp {
@@ -46,6 +52,10 @@ public class Main extends KyupiApp {
         // specific operations to perform
         options.addOption("sep_clk", true, "safe a new design with separate chain clocks to given file and exit");
         options.addOption("sim", true, "evaluate by WSA sim with given number of blocks (1 block = 32 shift cycles)");
+        options.addOption("sweep", true,
+                "evaluate a grid of configurations on the loaded design, e.g. \"clk=2,4;arx=100,200;prt_method=z1,z5\", and exit");
+        options.addOption("sweep_out", true, "write the sweep results table to given file (default stdout)");
+        options.addOption("sweep_threads", true, "number of concurrently evaluated sweep configurations (default: processors)");
 
         // output control parameters
         options.addOption("table", true, "output a data table for latex into given file");
@@ -113,6 +123,13 @@ public class Main extends KyupiApp {
             });
         }
 
+        // sweep operation. Exits here if executed.
+        if (argsParsed().hasOption("sweep")){
+            sweep(cbinfo, chains, placement, chain2impactset);
+            printGoodbye();
+            return null;
+        }
+
         // read aggressor region size parameters
         double arx = doubleFromArgsOrDefault("arx", 200);
         double ary = doubleFromArgsOrDefault("ary", 8);
@@ -157,18 +174,8 @@ public class Main extends KyupiApp {
                         grouping.iterator();
                     }
                 }
-            } else if (groupingMethod.startsWith("z1")) {
-                log.info("GroupingMethod Z1");
-                grouper = new ScanChainGrouperZ1();
-            } else if (groupingMethod.startsWith("z2")) {
-                log.info("GroupingMethod Z2");
-                grouper = new ScanChainGrouperZ2();
-            }else if (groupingMethod.startsWith("z3")) {
-                log.info("GroupingMethod Z3");
-                grouper = new ScanChainGrouperZ3();
-            } else if (groupingMethod.startsWith("z5")){
-                log.info("GroupingMethod Z5");
-                grouper = new ScanChainGrouperZ5(skewthreshold);
+            } else if ((grouper = newGrouper(groupingMethod, skewthreshold)) != null) {
+                log.info("GroupingMethod " + groupingMethod.substring(0, 2).toUpperCase());
             } else {
                 log.error("unknown grouping method " + groupingMethod);
                 printGoodbye();
@@ -342,6 +349,150 @@ public class Main extends KyupiApp {
         return null;
     }
 
+    /**
+     * evaluates all configurations of the -sweep grid on the loaded design. Impact sets and the
+     * aggressor lists of the largest region are computed once, the clock aggressor sets once per
+     * aggressor region size. Each configuration uses its
+     * own cost function, the configurations run concurrently, and the results are written as one
+     * table with a row per configuration in grid order.
+     */
+    private void sweep(CBInfo cbinfo, ScanChains chains, Placement placement,
+                       HashMap<ScanChain, HashSet<Cell>> chain2impactset) throws Exception {
+        SweepGrid grid = new SweepGrid(argsParsed().getOptionValue("sweep"), "clk", "arx", "ary", "prt_method", "thr");
+        HashMap<String, String> defaults = new HashMap<>();
+        defaults.put("clk", "" + intFromArgsOrDefault("clk", 1));
+        defaults.put("arx", "" + doubleFromArgsOrDefault("arx", 200));
+        defaults.put("ary", "" + doubleFromArgsOrDefault("ary", 8));
+        defaults.put("prt_method", stringFromArgsOrDefault("prt_method", "random"));
+        defaults.put("thr", "" + intFromArgsOrDefault("thr", 0));
+        List<SweepGrid.Configuration> configs = grid.configurations(defaults);
+        log.info("SweepConfigurations " + configs.size());
+        for (SweepGrid.Configuration config : configs){
+            String method = config.get("prt_method").toLowerCase();
+            if (!method.startsWith("r") && !method.startsWith("se") && newGrouper(method, 0) == null)
+                throw new IllegalArgumentException("unknown grouping method for sweep: " + method);
+        }
+
+        // one geometry pass for the largest region, smaller regions are views of its lists.
+        int maxArxnm = 0;
+        int maxArynm = 0;
+        for (SweepGrid.Configuration config : configs){
+            maxArxnm = Math.max(maxArxnm, (int) (config.getDouble("arx") * NAND_WIDTH));
+            maxArynm = Math.max(maxArynm, (int) (config.getDouble("ary") * ROW_HEIGHT));
+        }
+        ArrayList<Cell> cbufs = distinctClockBuffers(cbinfo, chains);
+        AggressorLists aggressorLists = newAggressorLists(cbufs, placement, maxArxnm, maxArynm);
+
+        HashMap<String, HashMap<ScanCell, ArrayList<Cell>>> aggressorSets = new HashMap<>();
+        for (SweepGrid.Configuration config : configs){
+            String key = config.get("arx") + " " + config.get("ary");
+            if (aggressorSets.containsKey(key))
+                continue;
+            int arxnm = (int) (config.getDouble("arx") * NAND_WIDTH);
+            int arynm = (int) (config.getDouble("ary") * ROW_HEIGHT);
+            log.info("Calculating aggressor sets for AggressorRegionSize X " + config.get("arx") + " Y "
+                    + config.get("ary") + "...");
+            HashMap<ScanCell, ArrayList<Cell>> cell2aggressorSet = new HashMap<>();
+            calculateAggressorSets(cbinfo, chains, cbufs, aggressorLists, arxnm, arynm,
+                    new HashMap<Cell, HashSet<Cell>>(), cell2aggressorSet);
+            aggressorSets.put(key, cell2aggressorSet);
+        }
+
+        long startSeed = longFromArgsOrDefault("prt_start", 0);
+        long groupingCases = longFromArgsOrDefault("prt_cases", 1);
+        int threads = intFromArgsOrDefault("sweep_threads", Runtime.getRuntime().availableProcessors());
+        log.info("SweepThreads " + threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        PrintStream out = argsParsed().hasOption("sweep_out")
+                ? new PrintStream(new FileOutputStream(argsParsed().getOptionValue("sweep_out")))
+                : System.out;
+        try {
+            List<Future<String>> rows = new ArrayList<>();
+            for (SweepGrid.Configuration config : configs){
+                HashMap<ScanCell, ArrayList<Cell>> cell2aggressorSet = aggressorSets.get(config.get("arx") + " " + config.get("ary"));
+                rows.add(pool.submit(() -> sweepRow(config, chains.size(), chain2impactset, cell2aggressorSet,
+                        startSeed, groupingCases)));
+            }
+            out.println(grid.header() + "\tcost\tworst_group\tcases\ttime_ms\tclocking");
+            for (Future<String> row : rows)
+                out.println(row.get());
+        } finally {
+            pool.shutdown();
+            if (out != System.out)
+                out.close();
+        }
+    }
+
+    /**
+     * evaluates a single sweep configuration. Random and sequential groupings evaluate prt_cases cases
+     * from prt_start and keep the best.
+     *
+     * @return the table row of the configuration.
+     */
+    private String sweepRow(SweepGrid.Configuration config, int chainCount, HashMap<ScanChain, HashSet<Cell>> chain2impactset,
+                            HashMap<ScanCell, ArrayList<Cell>> cell2aggressorSet, long startSeed, long groupingCases){
+        long start = System.nanoTime();
+        int clocks = config.getInt("clk");
+        String method = config.get("prt_method").toLowerCase();
+        FastCostFunction cost = new FastCostFunction(chain2impactset, cell2aggressorSet);
+        int[] clocking = new int[chainCount];
+        long cases = 1;
+        ScanChainGrouper grouper = newGrouper(method, config.getInt("thr"));
+        if (clocks > chainCount){
+            // one chain per group
+            clocks = chainCount;
+            for (int i = 0; i < chainCount; i++)
+                clocking[i] = i;
+        } else if (clocks > 1 && grouper != null){
+            grouper.setChainSize(chainCount);
+            clocking = grouper.calculateClocking(clocks, cost);
+        } else if (clocks > 1){
+            ScanChainGrouping grouping;
+            if (method.startsWith("r")){
+                grouping = new RandomGrouping(chainCount, clocks, startSeed);
+            } else {
+                grouping = new SeqGrouping(chainCount, clocks);
+                for (long i = 0; i < startSeed; i++){
+                    if (!grouping.hasNext())
+                        grouping.iterator();
+                    grouping.next();
+                }
+            }
+            int best = Integer.MAX_VALUE;
+            for (cases = 0; cases < groupingCases; cases++){
+                if (!grouping.hasNext())
+                    grouping.iterator();
+                int[] c = grouping.next();
+                int groupingCost = cost.evaluate(c, clocks);
+                if (groupingCost < best){
+                    best = groupingCost;
+                    clocking = Arrays.copyOf(c, c.length);
+                }
+            }
+        }
+        int groupingCost = cost.evaluate(clocking, clocks);
+        long millis = (System.nanoTime() - start) / 1000000;
+        log.info("SweepConfiguration " + config.toString().replace('\t', ' ') + " CostDifference " + groupingCost
+                + " Time " + millis + "ms");
+        return config + "\t" + groupingCost + "\t" + cost.getLastWorstClockId() + "\t" + cases + "\t" + millis + "\t"
+                + Arrays.toString(clocking).replaceAll("[\\[\\],]", "");
+    }
+
+    /**
+     * @return a new grouping algorithm for the given method, or null if the method is no algorithm.
+     */
+    private ScanChainGrouper newGrouper(String method, int skewthreshold){
+        if (method.startsWith("z1"))
+            return new ScanChainGrouperZ1();
+        else if (method.startsWith("z2"))
+            return new ScanChainGrouperZ2();
+        else if (method.startsWith("z3"))
+            return new ScanChainGrouperZ3();
+        else if (method.startsWith("z5"))
+            return new ScanChainGrouperZ5(skewthreshold);
+        return null;
+    }
+
     private CBInfo collectClockBuffers(Circuit circuit, ScanChains sc){
         log.info("Collecting clock buffers for each scan cell");
 
@@ -446,21 +597,69 @@ public class Main extends KyupiApp {
 
     private void calculateAggressorSets(CBInfo cbInfo, ScanChains chains, Placement placement, int arxnm, int arynm, HashMap<Cell,
             HashSet<Cell>> cbuf2aggressorSet, HashMap<ScanCell, ArrayList<Cell>> cell2aggressorSet){
+        ArrayList<Cell> cbufs = distinctClockBuffers(cbInfo, chains);
+        PlacementGrid grid = new PlacementGrid(placement, arxnm, arynm);
+        int[][] xy = clockBufferCoordinates(cbufs, placement);
+        calculateAggressorSets(cbInfo, chains, cbufs, grid, grid.queryAll(xy[0], xy[1], arxnm, arynm),
+                cbuf2aggressorSet, cell2aggressorSet);
+    }
+
+    private ArrayList<Cell> distinctClockBuffers(CBInfo cbInfo, ScanChains chains){
+        ArrayList<Cell> cbufs = new ArrayList<>();
+        HashSet<Cell> seen = new HashSet<>();
+        for (int chainId = 0; chainId < chains.size(); chainId++)
+            for (ScanCell cell : chains.get(chainId).cells)
+                for (Cell n : cbInfo.sff_to_clock_buffer_set.get(cell.node))
+                    if (seen.add(n))
+                        cbufs.add(n);
+        return cbufs;
+    }
+
+    /**
+     * @return the aggressor lists of the given clock buffers for regions up to arxnm x arynm.
+     */
+    private AggressorLists newAggressorLists(ArrayList<Cell> cbufs, Placement placement, int arxnm, int arynm){
+        int[][] xy = clockBufferCoordinates(cbufs, placement);
+        return new AggressorLists(new PlacementGrid(placement, arxnm, arynm), xy[0], xy[1], arxnm, arynm);
+    }
+
+    private int[][] clockBufferCoordinates(ArrayList<Cell> cbufs, Placement placement){
+        int[][] xy = new int[2][cbufs.size()];
+        for (int i = 0; i < cbufs.size(); i++){
+            xy[0][i] = placement.getX(cbufs.get(i));
+            xy[1][i] = placement.getY(cbufs.get(i));
+        }
+        return xy;
+    }
+
+    /**
+     * takes the clock aggressor sets of regions arxnm x arynm from the given lists of cbufs, which may be
+     * built for a larger region. Every clock buffer is queried once.
+     */
+    private void calculateAggressorSets(CBInfo cbInfo, ScanChains chains, ArrayList<Cell> cbufs,
+                                        AggressorLists lists, int arxnm, int arynm,
+                                        HashMap<Cell, HashSet<Cell>> cbuf2aggressorSet,
+                                        HashMap<ScanCell, ArrayList<Cell>> cell2aggressorSet){
+        calculateAggressorSets(cbInfo, chains, cbufs, lists.grid(), lists.viewAll(arxnm, arynm), cbuf2aggressorSet,
+                cell2aggressorSet);
+    }
+
+    private void calculateAggressorSets(CBInfo cbInfo, ScanChains chains, ArrayList<Cell> cbufs,
+                                        PlacementGrid grid, int[][] aggressors,
+                                        HashMap<Cell, HashSet<Cell>> cbuf2aggressorSet,
+                                        HashMap<ScanCell, ArrayList<Cell>> cell2aggressorSet){
+        for (int i = 0; i < aggressors.length; i++)
+            cbuf2aggressorSet.put(cbufs.get(i), grid.toSet(aggressors[i]));
+
         for (int chainId = 0; chainId < chains.size(); chainId++){
             ScanChain chain = chains.get(chainId);
             for (ScanCell cell : chain.cells){
                 ArrayList<Cell> saffaggressors = new ArrayList<>();
                 cell2aggressorSet.put(cell, saffaggressors);
                 for (Cell n : cbInfo.sff_to_clock_buffer_set.get(cell.node)){
-                    int x = placement.getX(n);
-                    int y = placement.getY(n);
-                    System.out.print(x + " " + y + "\t");
-                    cbuf2aggressorSet.put(n, placement.getRectangle(x - arxnm / 2, y - arynm / 2, x + arxnm / 2,
-                            y+ arynm / 2));
                     //no duplication removing
                     saffaggressors.addAll(cbuf2aggressorSet.get(n));
                 }
-                System.out.println();
             }
         }
     }
@@ -1,23 +1,25 @@
 package jp.ac.kyutech.ci.sc_grouping_clkaggre;
 
 
+import jp.ac.kyutech.ci.grouping.PartitionGeneratorRandom;
+
 import java.util.Iterator;
-import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Stream;
 
 public class RandomGrouping extends ScanChainGrouping{
 
+    private int setSize;
     private int groupCount;
-    private long seed;
     private long initSeed;
 
-    private int[] prt;
+    private PartitionGeneratorRandom gen;
 
     public RandomGrouping(int setSize, int groupingCount, long initSeed){
-        this.prt = new int[setSize];
+        this.setSize = setSize;
         this.groupCount = groupingCount;
         this.initSeed = initSeed;
-        seed = initSeed;
-
+        gen = new PartitionGeneratorRandom(setSize, groupingCount, initSeed);
     }
     /**
      * Returns an iterator over elements of type {@code T}.
@@ -26,7 +28,7 @@ public class RandomGrouping extends ScanChainGrouping{
      */
     @Override
     public Iterator<int[]> iterator() {
-        seed = initSeed;
+        gen = new PartitionGeneratorRandom(setSize, groupCount, initSeed);
         return this;
     }
 
@@ -45,16 +47,23 @@ public class RandomGrouping extends ScanChainGrouping{
     /**
      * Returns the next element in the iteration.
      *
-     * @return the next element in the iteration
+     * @return the next element in the iteration, a new array each time
      * @throws NoSuchElementException if the iteration has no more elements
      */
     @Override
     public int[] next() {
-        Random random = new Random(seed);
-        for (int i = 0; i < prt.length; i++){
-            prt[i] = random.nextInt(groupCount);
-        }
-        seed++;
-        return prt;
+        return gen.next();
+    }
+
+    /**
+     * Groupings with index from .. to-1, where grouping i uses seed initSeed + i. The parts of a split
+     * are independent and may be consumed by different threads.
+     */
+    public Spliterator<int[]> spliterator(long from, long to) {
+        return new PartitionGeneratorRandom(setSize, groupCount, initSeed).spliterator(from, to);
+    }
+
+    public Stream<int[]> stream(long from, long to) {
+        return new PartitionGeneratorRandom(setSize, groupCount, initSeed).stream(from, to);
     }
 }
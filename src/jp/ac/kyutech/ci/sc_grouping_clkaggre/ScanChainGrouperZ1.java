@@ -22,11 +22,14 @@ public class ScanChainGrouperZ1 extends ScanChainGrouper {
         while (randTries < RANDOM_TIMEOUT){
             randTries++;
             cand_clking = randGrouping.next();
-            int this_cost = cost.evaluate(cand_clking, groupCount);
+            int this_cost = cost.evaluateBounded(cand_clking, groupCount, cand_cost);
             // print grouping info and grouping cost
             log.info("Clocking " + Arrays.toString(cand_clking).replaceAll("\\[", "").replaceAll("\\]", "")
                     .replaceAll(",", ""));
-            log.info("cost of cand_clocking " + this_cost);
+            if (this_cost <= cand_cost)
+                log.info("cost of cand_clocking " + this_cost);
+            else
+                log.info("cost of cand_clocking > " + cand_cost);
             if (this_cost < cand_cost){
                 System.arraycopy(cand_clking, 0, clocking, 0, clocking.length);
                 cand_cost = this_cost;